@@ -3,9 +3,12 @@ package storm.starter.trident.project.countmin.filters;
 import storm.trident.operation.BaseFilter;
 import storm.trident.operation.BaseFunction;
 import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
 import storm.trident.tuple.TridentTuple;
 import storm.starter.trident.project.countmin.filters.BloomFilter;
+import storm.starter.trident.project.countmin.state.SketchMetrics;
 import java.io.*;
+import java.util.Map;
 /**
 * Print Filter for printing Trident tuples;
 * useful for testing and debugging.
@@ -14,38 +17,60 @@ import java.io.*;
 */
 public class Bloom extends BaseFilter {
 
-	int noItems = 14395;							// no.of words from the "stop-words" list 
 	int bitsPerItem = 8; 							// no.of bits per entry in the BloomFilter
 	int noHashes = 5;								// no.of Hash functions noHashes = floor(0.693*bitsPerItem) = 5
-	BloomFilter bloomfilter;
+	boolean blocked;								// use BlockedBloomFilter instead of BloomFilter
+	transient StopWordFilter bloomfilter;			// loaded on the worker, in prepare()
+	transient SketchMetrics.Ratio rejected;			// fraction of words dropped as stop-words
 	String DATA_PATH;
+	String IMAGE_PATH;
 
 public Bloom()
+{
+	this(true);
+}
+
+/**
+* @param blocked use the cache-line BlockedBloomFilter (one hash, one cache
+*                line per word) instead of the classic BloomFilter
+*/
+public Bloom(boolean blocked)
 {
 	DATA_PATH = "data/stop-words.txt";		//The input data stream for stop-words
+	IMAGE_PATH = "data/stop-words.bloom";	//Prebuilt filter image (see StopWordImage), used instead of the list when present
+	this.blocked = blocked;
+}
 
-    bloomfilter = new BloomFilter(noItems, bitsPerItem, noHashes); // initialize the BloomFilter with parameters
+	@Override
+public void prepare(Map conf, TridentOperationContext context) {
 
-	BufferedReader br = null;
- 
-	String s;
-	try{
+	bloomfilter = load(DATA_PATH, IMAGE_PATH, blocked, bitsPerItem, noHashes);
+	rejected = context.registerMetric("stopwords.rejection_rate", new SketchMetrics.Ratio(), SketchMetrics.bucketSecs(conf));
+}
 
- 		br = new BufferedReader(new FileReader(DATA_PATH));			// read the file using buffer
- 	
-		while ((s = br.readLine()) != null) {
-			bloomfilter.add(s);										// add each word to BloomFilter
-		}
+/**
+* The stop-word filter of this worker JVM: the mapped image when there is
+* one (blocked filters only), else a filter built from the word list and
+* sized from its number of words. Either way it is shared by all executors.
+*/
+static StopWordFilter load(String dataPath, String imagePath, boolean blocked, int bitsPerItem, int noHashes) {
+	File image = new File(imagePath);
+	try {
+		if (blocked && image.isFile())
+			return StopWordImage.map(image);
+		return StopWordImage.fromWordList(new File(dataPath), blocked, bitsPerItem, noHashes);
+	}
+	catch(IOException e){
+		throw new IllegalStateException("Cannot load stop-words from " + (blocked && image.isFile() ? imagePath : dataPath), e);
 	}
-	catch(Exception e){
- 		System.out.println("File not Found");
- 	}
 }
+
 	@Override
 public boolean isKeep(TridentTuple tuple) {
 
-	return !(bloomfilter.contains(tuple.getString(0)));					// Every incoming word from the stream is matched with the bloomfilter 
-																		// list of words. If present, then return false (to drop)
+	boolean stopword = bloomfilter.contains(tuple.getString(0));		// Every incoming word from the stream is matched with the bloomfilter 
+	rejected.record(stopword);											// list of words. If present, then return false (to drop)
+	return !stopword;
 
 }
 }
\ No newline at end of file
@@ -4,7 +4,9 @@ import backtype.storm.Config;
 import backtype.storm.LocalCluster;
 import backtype.storm.LocalDRPC;
 import backtype.storm.generated.StormTopology;
+import backtype.storm.metric.LoggingMetricsConsumer;
 import backtype.storm.tuple.Fields;
+import storm.trident.Stream;
 import storm.trident.TridentState;
 import storm.trident.TridentTopology;
 import storm.trident.operation.builtin.FilterNull;
@@ -21,16 +23,29 @@ import storm.starter.trident.project.functions.TextBuilder;
 import storm.starter.trident.project.functions.ToLowerCase;
 
 import java.util.Arrays;
+import java.util.Locale;
 
 import storm.trident.operation.builtin.Count;
 
+import storm.starter.trident.project.countmin.state.CountMinSketchState;
 import storm.starter.trident.project.countmin.state.CountMinSketchStateFactory;
+import storm.starter.trident.project.countmin.state.CounterTable;
+import storm.starter.trident.project.countmin.state.HeavyHitterEngine;
 import storm.starter.trident.project.countmin.state.CountMinTopK;
+import storm.starter.trident.project.countmin.state.CountMinQuery;
 import storm.starter.trident.project.countmin.state.CountMinSketchUpdater;
+import storm.starter.trident.project.countmin.state.WordCountAggregator;
+import storm.starter.trident.project.countmin.state.TopKCombiner;
+import storm.starter.trident.project.countmin.state.TopKFormatter;
+import storm.starter.trident.project.countmin.state.TopKRows;
+import storm.starter.trident.project.countmin.state.SketchMetrics;
 //import storm.starter.trident.project.functions.Split;
 import storm.starter.trident.project.countmin.filters.Bloom;
+import storm.starter.trident.project.countmin.filters.StopWordTokenizer;
 import storm.starter.trident.project.functions.ParseTweet;
 import storm.starter.trident.project.spouts.TwitterSampleSpout;
+import storm.starter.trident.project.countmin.spouts.ReplaySpout;
+import storm.trident.spout.IBatchSpout;
 
 /**
  *@author: SWAGAT KUMAR DASH (Top-K)
@@ -40,13 +55,6 @@ public class CountMinSketchTopology {
 
 	 public static StormTopology buildTopology( String[] args, LocalDRPC drpc ) {
 
-        TridentTopology topology = new TridentTopology();
-
-        int width = 2000;	// number of columns in CountMin
-		int depth = 10;		// number of rows in CountMin
-		int seed = 10;
-		int k = 15;			// number of words in Top-K list
-
 		// Twitter's account credentials passed as args
 		String consumerKey = args[0];		
         String consumerSecret = args[1];
@@ -61,20 +69,103 @@ public class CountMinSketchTopology {
 		TwitterSampleSpout spoutTweets = new TwitterSampleSpout(consumerKey, consumerSecret,
 									accessToken, accessTokenSecret, topicWords);
 
+		return buildTopology(spoutTweets, drpc);
+	}
+
+	/**
+	 * The topology fed from any spout of twitter4j Statuses in a "tweet"
+	 * field, e.g. a ReplaySpout of recorded tweets.
+	 */
+	public static StormTopology buildTopology( IBatchSpout spoutTweets, LocalDRPC drpc ) {
+
+        TridentTopology topology = new TridentTopology();
+
+        int width = 2000;	// number of columns in CountMin
+		int depth = 10;		// number of rows in CountMin
+		int seed = 10;
+		int k = 15;			// number of words in Top-K list
+		int parallelism = Integer.getInteger("countmin.parallelism", 4);	// number of CountMin partitions (and of tokenizing executors)
+		String snapshotDir = System.getProperty("countmin.snapshot.dir");								// local directory for per-partition snapshots (unset: no snapshots)
+		int snapshotEvery = Integer.getInteger("countmin.snapshot.every", 10);							// snapshot every this many batch commits
+		int windowIntervals = Integer.getInteger("countmin.window.intervals", 0);						// sliding window length in intervals (0: count since start)
+		int intervalSeconds = Integer.getInteger("countmin.window.seconds", 60);						// length of one window interval
+		boolean preAggregate = Boolean.parseBoolean(System.getProperty("countmin.preaggregate", "true"));	// collapse each batch into (word, count) before the state
+		boolean fused = Boolean.parseBoolean(System.getProperty("countmin.fused", "true"));				// split, lowercase and stop-word filter in one StopWordTokenizer stage
+		CounterTable.Kind counters = CounterTable.Kind.valueOf(System.getProperty("countmin.counters", "long").toUpperCase(Locale.ROOT));	// width of the CountMin counters
+		CountMinSketchStateFactory.Storage storage = CountMinSketchStateFactory.Storage.valueOf(System.getProperty("countmin.storage", "heap").replace('-', '_').toUpperCase(Locale.ROOT));	// where the CountMin counters are kept
+		boolean conservative = Boolean.parseBoolean(System.getProperty("countmin.conservative", "false"));	// conservative update: raise cells only up to the new estimate
+		int hotKeys = Integer.getInteger("countmin.hotkeys", 0);										// heaviest words counted exactly in front of the sketch (0: none)
+		HeavyHitterEngine.Type engine = HeavyHitterEngine.Type.valueOf(System.getProperty("countmin.engine", "count_min").replace('-', '_').toUpperCase(Locale.ROOT));	// what counts the words in each partition
+		String eps = System.getProperty("countmin.eps");												// target relative error, replaces depth and width when set
+		if (eps != null) {
+			width = CountMinSketchState.widthFor(Double.parseDouble(eps));
+			depth = CountMinSketchState.depthFor(Double.parseDouble(System.getProperty("countmin.confidence", "0.999")));
+		}
+		int minWidth = Integer.getInteger("countmin.fold.minwidth", 0);								// fold partitions under memory pressure, not below this width (0: never fold)
+		long maxTableBytes = Long.getLong("countmin.fold.maxbytes", 0L);								// fold while a partition's counters take more than this
+		double maxHeapFraction = Double.parseDouble(System.getProperty("countmin.fold.heap", "0.85"));	// fold when the old generation stays fuller than this after GC
+
 		// Build a persistent state of words from the stream
-		TridentState countMinDBMS = topology.newStream("tweets", spoutTweets)
+		Stream sentences = topology.newStream("tweets", spoutTweets)
+			.shuffle()																						// spread the tweets over the tokenizing executors
             .each(new Fields("tweet"), new ParseTweet(), new Fields("text", "tweetId", "user"))				// Parse the tweets into text, tweetID and user
    			.each(new Fields("text", "tweetId", "user"), new TextBuilder(), new Fields("sentence"))     	// Form the sentence with tweet text
-			.each(new Fields("sentence"), new Split(), new Fields("allwords"))								// Split each tweet sentence into words (space-delimited)
-			.each(new Fields("allwords"), new ToLowerCase(), new Fields("words"))							// convert each of the word into lowercase
-			.each(new Fields("words"), new Bloom())															// Pass each word with BloomFilter
-			.partitionPersist( new CountMinSketchStateFactory(depth,width,seed,k), new Fields("words"), new CountMinSketchUpdater())	// CountMinSketchStateFactory creates a count-min data structure for the filtered words
+			;
+
+		Stream words;
+		Fields persisted;
+		if (fused) {
+			words = sentences
+				.each(new Fields("sentence"), new StopWordTokenizer(), new Fields("words", "count", "hash"));	// one (word, count, hash) per distinct kept word of the tweet
+			persisted = new Fields("words", "count", "hash");
+		}
+		else {
+			words = sentences
+				.each(new Fields("sentence"), new Split(), new Fields("allwords"))							// Split each tweet sentence into words (space-delimited)
+				.each(new Fields("allwords"), new ToLowerCase(), new Fields("words"))						// convert each of the word into lowercase
+				.each(new Fields("words"), new Bloom());													// Pass each word with BloomFilter
+			persisted = new Fields("words");
+		}
+
+		if (preAggregate) {
+			words = words.partitionAggregate(persisted, new WordCountAggregator(), new Fields("words", "count", "hash"));	// one (word, count, hash) per distinct word in the batch
+			persisted = new Fields("words", "count", "hash");
+		}
+
+		TridentState countMinDBMS = words
+			.parallelismHint(parallelism)
+			.partitionBy(new Fields("words"))																// each word is owned by exactly one CountMin partition
+			.partitionPersist( new CountMinSketchStateFactory(depth,width,seed,k,snapshotDir,snapshotEvery).withWindow(windowIntervals, intervalSeconds * 1000L).withCounters(counters).withStorage(storage).withConservativeUpdate(conservative).withHotKeys(hotKeys).withEngine(engine).withFolding(maxTableBytes, maxHeapFraction, minWidth), persisted, new CountMinSketchUpdater())	// CountMinSketchStateFactory creates a count-min data structure for the filtered words
+			.parallelismHint(parallelism)
 			;																															
 
 		// Query the persistent storage for the Top-K words and display
 		topology.newDRPCStream("get_count", drpc)
-			.stateQuery(countMinDBMS, new Fields("args"), new CountMinTopK(), new Fields("count"))
-			.project(new Fields("args", "count"))
+			.broadcast()																					// ask every partition for its local Top-K
+			.stateQuery(countMinDBMS, new Fields("args"), new CountMinTopK(), new Fields("word", "count", "error"))	// served from the snapshot published at the last commit
+			.groupBy(new Fields("args"))
+			.aggregate(new Fields("word", "count", "error"), new TopKCombiner(k), new Fields("topk"))		// reduce the local lists into the global Top-K
+			.each(new Fields("args", "topk"), new TopKFormatter(), new Fields("result"))
+			.project(new Fields("args", "result"))
+			;
+
+		// The same Top-K as one (rank, word, count, error) row per word, for dashboards
+		topology.newDRPCStream("get_topk", drpc)
+			.broadcast()
+			.stateQuery(countMinDBMS, new Fields("args"), new CountMinTopK(), new Fields("word", "count", "error"))
+			.groupBy(new Fields("args"))
+			.aggregate(new Fields("word", "count", "error"), new TopKCombiner(k), new Fields("topk"))
+			.each(new Fields("args", "topk"), new TopKRows(), new Fields("rank", "word", "count", "error"))
+			.project(new Fields("args", "rank", "word", "count", "error"))
+			;
+
+		// Estimated counts of a space-separated list of words, e.g. "#kca #eclipse love"
+		topology.newDRPCStream("get_counts", drpc)
+			.each(new Fields("args"), new Split(), new Fields("query"))
+			.each(new Fields("query"), new ToLowerCase(), new Fields("words"))								// words are counted in lowercase
+			.partitionBy(new Fields("words"))																// each word goes to the partition that owns it
+			.stateQuery(countMinDBMS, new Fields("words"), new CountMinQuery(), new Fields("count"))		// one batched lookup per partition
+			.project(new Fields("words", "count"))
 			;
 
 		return topology.build();		// The built topology is returned finally
@@ -85,10 +176,17 @@ public class CountMinSketchTopology {
 		Config conf = new Config();
         	conf.setDebug( false );
         	conf.setMaxSpoutPending( 10 );
+        	conf.put(SketchMetrics.BUCKET_SECS_CONF, Integer.getInteger("countmin.metrics.seconds", SketchMetrics.DEFAULT_BUCKET_SECS));
+        	conf.registerMetricsConsumer(LoggingMetricsConsumer.class, 1);						// ingest, filter and sketch metrics go to the worker's metrics.log
 
         	LocalCluster cluster = new LocalCluster();
         	LocalDRPC drpc = new LocalDRPC();													// Creating a local cluster toplogy for DRPC
-        	cluster.submitTopology("get_count",conf,buildTopology(args, drpc));					//The topology "get_count" is submitted. The call to establish the topology is also placed here
+        	String replay = System.getProperty("countmin.replay");								// recorded tweets to replay instead of the live stream
+        	StormTopology topology = replay == null ? buildTopology(args, drpc)
+        		: buildTopology(new ReplaySpout(1000, replay.split(",")).looping(true)
+        			.withRate(Double.parseDouble(System.getProperty("countmin.replay.rate", "0")))
+        			.withTimeCompression(Double.parseDouble(System.getProperty("countmin.replay.speedup", "0"))), drpc);
+        	cluster.submitTopology("get_count",conf,topology);									//The topology "get_count" is submitted. The call to establish the topology is also placed here
 
         	for (int i = 0; i < 6; i++) {
 
@@ -0,0 +1,140 @@
+package storm.starter.trident.project.countmin.bench;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+import storm.starter.trident.project.countmin.state.CountMinSketchState;
+import storm.starter.trident.project.countmin.state.WordCount;
+
+/**
+ * Accuracy against memory of CountMinSketchState, with and without
+ * conservative update, on a ZipfWordGenerator stream whose exact counts are
+ * known. For every width it reports, for both modes:
+ * <ul>
+ * <li>Top-K precision: the fraction of the sketch's Top-K that is in the
+ * exact Top-K</li>
+ * <li>mean and maximum overestimate over all distinct words, as a fraction
+ * of the stream length (the error bound is eps = 2 / width of it)</li>
+ * </ul>
+ * and then the smallest width at which each mode reaches the Top-K
+ * precision of the plain sketch at the reference width (the topology's),
+ * and how conservative update at half that width compares to it.
+ *
+ * Widths are powers of two, so memory can only be saved in halves. Top-K
+ * precision at small widths is limited by words whose depth cells all
+ * coincide with those of a frequent word (the probes h1 + i * h2 of two
+ * words coincide in every row when h1 and h2 do modulo the width), which
+ * no update rule can separate.
+ *
+ * Usage: AccuracyBenchmark [depth] [k] [words] [reference width] [vocabulary]
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class AccuracyBenchmark {
+
+    static final int[] WIDTHS = {64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384};
+    static final long SEED = 42;
+
+    public static void main(String[] args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 15;
+        int words = args.length > 2 ? Integer.parseInt(args[2]) : 2000000;
+        int referenceWidth = args.length > 3 ? Integer.parseInt(args[3]) : 2048;
+        int vocabularySize = args.length > 4 ? Integer.parseInt(args[4]) : 100000;
+
+        ZipfWordGenerator generator = new ZipfWordGenerator(vocabularySize, 1.0, SEED);
+        int[] ranks = new int[words];
+        long[] exact = new long[vocabularySize];
+        for (int i = 0; i < words; i++) {
+            ranks[i] = generator.nextRank();
+            exact[ranks[i]]++;
+        }
+        Set<String> exactTopK = exactTopK(generator, exact, k);
+
+        System.out.printf("depth=%d k=%d words=%d vocabulary=%d zipf=1.0 seed=%d%n", depth, k, words, vocabularySize, SEED);
+        System.out.printf("%7s %10s | %9s %10s %10s | %9s %10s %10s%n", "width", "bytes",
+                          "precision", "mean err", "max err", "cu prec", "cu mean", "cu max");
+        double[][][] results = new double[WIDTHS.length][2][];
+        for (int w = 0; w < WIDTHS.length; w++) {
+            long bytes = 0;
+            for (int mode = 0; mode < 2; mode++) {
+                CountMinSketchState sketch = new CountMinSketchState(depth, WIDTHS[w], 10, k);
+                sketch.setConservativeUpdate(mode == 1);
+                for (int i = 0; i < words; i++) {
+                    sketch.add(generator.word(ranks[i]), 1);
+                }
+                results[w][mode] = measure(sketch, generator, exact, exactTopK, words);
+                bytes = sketch.getTableBytes();
+            }
+            System.out.printf("%7d %10d | %9.3f %10.2e %10.2e | %9.3f %10.2e %10.2e%n", WIDTHS[w], bytes,
+                              results[w][0][0], results[w][0][1], results[w][0][2],
+                              results[w][1][0], results[w][1][1], results[w][1][2]);
+        }
+
+        int ref = Arrays.binarySearch(WIDTHS, referenceWidth);
+        if (ref >= 0) {
+            double precision = results[ref][0][0];
+            int plain = smallestWidth(results, 0, precision);
+            int conservative = smallestWidth(results, 1, precision);
+            System.out.printf("Top-%d precision %.3f (plain sketch, width %d) is reached at width %d plain, %d conservative: %.1fx less memory%n",
+                              k, precision, referenceWidth, plain, conservative, (double) plain / conservative);
+            if (ref > 0) {
+                System.out.printf("Conservative at width %d: precision %.3f, mean overestimate %.2fx that of plain at width %d%n",
+                                  WIDTHS[ref - 1], results[ref - 1][1][0], results[ref - 1][1][1] / results[ref][0][1], referenceWidth);
+            }
+        }
+    }
+
+    // smallest width at which the mode reaches the precision
+    private static int smallestWidth(double[][][] results, int mode, double precision) {
+        for (int w = 0; w < WIDTHS.length; w++) {
+            if (results[w][mode][0] >= precision - 1e-9) {
+                return WIDTHS[w];
+            }
+        }
+        return -1;
+    }
+
+    // {Top-K precision, mean overestimate / words, max overestimate / words}
+    private static double[] measure(CountMinSketchState sketch, ZipfWordGenerator generator, long[] exact,
+                                    Set<String> exactTopK, int words) {
+        int hits = 0;
+        for (WordCount w : sketch.topK()) {
+            if (exactTopK.contains(w.word)) {
+                hits++;
+            }
+        }
+        double total = 0;
+        long max = 0;
+        int seen = 0;
+        for (int rank = 0; rank < exact.length; rank++) {
+            if (exact[rank] > 0) {
+                long over = sketch.estimateCount(generator.word(rank)) - exact[rank];
+                total += over;
+                max = Math.max(max, over);
+                seen++;
+            }
+        }
+        return new double[] {(double) hits / exactTopK.size(), total / seen / words, (double) max / words};
+    }
+
+    private static Set<String> exactTopK(ZipfWordGenerator generator, long[] exact, int k) {
+        Integer[] order = new Integer[exact.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final long[] counts = exact;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return counts[b] < counts[a] ? -1 : (counts[b] == counts[a] ? 0 : 1);
+            }
+        });
+        Set<String> top = new HashSet<String>();
+        for (int i = 0; i < Math.min(k, order.length); i++) {
+            top.add(generator.word(order[i]));
+        }
+        return top;
+    }
+}
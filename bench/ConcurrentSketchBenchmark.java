@@ -0,0 +1,115 @@
+package storm.starter.trident.project.countmin.bench;
+
+import java.util.concurrent.CountDownLatch;
+
+import storm.starter.trident.project.countmin.state.ConcurrentCountMinSketch;
+import storm.starter.trident.project.countmin.state.CountMinSketchState;
+
+/**
+ * Ingest throughput of ConcurrentCountMinSketch with 1 to 32 threads, for
+ * every strategy, next to the single-threaded CountMinSketchState (fed by
+ * one thread, and by N threads through one lock).
+ *
+ * Usage: ConcurrentSketchBenchmark [depth] [width] [k] [words per thread]
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class ConcurrentSketchBenchmark {
+
+    static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+
+    public static void main(String[] args) throws Exception {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+        int perThread = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+
+        final String[][] streams = new String[THREADS[THREADS.length - 1]][];
+        for (int t = 0; t < streams.length; t++) {
+            streams[t] = new ZipfWordGenerator(100000, 1.0, t).next(perThread);
+        }
+
+        System.out.printf("depth=%d width=%d k=%d words/thread=%d cpus=%d%n",
+                          depth, width, k, perThread, Runtime.getRuntime().availableProcessors());
+
+        final CountMinSketchState single = new CountMinSketchState(depth, width, 10, k);
+        for (int round = 0; round < 3; round++) {                         // warm up
+            feed(new CountMinSketchState(depth, width, 10, k), streams[0]);
+        }
+        long start = System.nanoTime();
+        feed(single, streams[0]);
+        System.out.printf("%-22s %2d threads %8.2f Mwords/s%n", "CountMinSketchState", 1,
+                          perThread * 1e3 / (System.nanoTime() - start));
+
+        for (int threads : THREADS) {
+            final CountMinSketchState locked = new CountMinSketchState(depth, width, 10, k);
+            report("CountMinSketchState+lock", threads, perThread, run(threads, streams, new Sink() {
+                public void add(String word) {
+                    synchronized (locked) {
+                        locked.add(word, 1);
+                    }
+                }
+            }));
+        }
+
+        for (ConcurrentCountMinSketch.Strategy strategy : ConcurrentCountMinSketch.Strategy.values()) {
+            for (int threads : THREADS) {
+                final ConcurrentCountMinSketch sketch = new ConcurrentCountMinSketch(depth, width, k, strategy);
+                run(threads, streams, new Sink() {                         // warm up
+                    public void add(String word) {
+                        sketch.add(word, 1);
+                    }
+                });
+                final ConcurrentCountMinSketch measured = new ConcurrentCountMinSketch(depth, width, k, strategy);
+                report(strategy.toString(), threads, perThread, run(threads, streams, new Sink() {
+                    public void add(String word) {
+                        measured.add(word, 1);
+                    }
+                }));
+            }
+        }
+    }
+
+    interface Sink {
+        void add(String word);
+    }
+
+    static void feed(CountMinSketchState sketch, String[] words) {
+        for (String word : words) {
+            sketch.add(word, 1);
+        }
+    }
+
+    static long run(int threads, final String[][] streams, final Sink sink) throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final String[] words = streams[t];
+            new Thread() {
+                @Override
+                public void run() {
+                    ready.countDown();
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (String word : words) {
+                        sink.add(word);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    static void report(String name, int threads, int perThread, long nanos) {
+        System.out.printf("%-22s %2d threads %8.2f Mwords/s%n", name, threads, (double) threads * perThread * 1e3 / nanos);
+    }
+}
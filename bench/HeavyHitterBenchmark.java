@@ -0,0 +1,184 @@
+package storm.starter.trident.project.countmin.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import storm.starter.trident.project.countmin.state.CountMinSketchStateFactory;
+import storm.starter.trident.project.countmin.state.HeavyHitterEngine;
+import storm.starter.trident.project.countmin.state.HeavyHitterSerializer;
+import storm.starter.trident.project.countmin.state.MurmurHash;
+import storm.starter.trident.project.countmin.state.WordCount;
+import storm.starter.trident.project.countmin.state.WordCountMap;
+
+/**
+ * Compares the HeavyHitterEngines on one stream, replayed identically into
+ * each of them: the stream is collapsed into batches of distinct (word,
+ * count, hash) once, the way CountMinSketchUpdater sees it, and every
+ * engine gets the same batches through addAll.
+ *
+ * For every memory budget (engines sized by
+ * CountMinSketchStateFactory.newEngine) and engine it prints:
+ * <ul>
+ * <li>bytes: sizeInBytes, including the words the engine keeps</li>
+ * <li>serialized: size of a HeavyHitterSerializer snapshot</li>
+ * <li>words/sec: best of ROUNDS passes over the stream, each into a new engine</li>
+ * <li>precision@k: fraction of the engine's Top-K in the exact Top-K</li>
+ * <li>mean error: mean |estimate - count| / count over the exact Top-K</li>
+ * </ul>
+ * The stream is a seeded ZipfWordGenerator one, or the words of a text
+ * file (split on whitespace, lowercased) replayed in a loop.
+ *
+ * Usage: HeavyHitterBenchmark [k] [words] [budgets in KB, comma-separated] [vocabulary] [text file]
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class HeavyHitterBenchmark {
+
+    static final int DEPTH = 10;
+    static final int SEED = 10;
+    static final int BATCH = 10000;                                     // words per batch, before collapsing
+    static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int k = args.length > 0 ? Integer.parseInt(args[0]) : 15;
+        int words = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        String[] budgets = (args.length > 2 ? args[2] : "40,160,640").split(",");
+        int vocabularySize = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+        String file = args.length > 4 ? args[4] : null;
+
+        List<Batch> stream = file != null ? batches(readWords(file), words) : batches(zipfWords(vocabularySize, words), words);
+        Map<String, Long> exact = new HashMap<String, Long>();
+        for (Batch b : stream) {
+            for (int j = 0; j < b.n; j++) {
+                Long c = exact.get(b.items[j]);
+                exact.put(b.items[j], (c != null ? c : 0) + b.counts[j]);
+            }
+        }
+        List<WordCount> exactTopK = exactTopK(exact, k);
+        Set<String> exactWords = new HashSet<String>();
+        for (WordCount w : exactTopK) {
+            exactWords.add(w.word);
+        }
+
+        System.out.printf("%s: words=%d distinct=%d batches=%d k=%d depth=%d, %s %s%n",
+                          file != null ? file : "zipf=1.0 seed=42 vocabulary=" + vocabularySize, words, exact.size(),
+                          stream.size(), k, DEPTH, System.getProperty("java.vm.name"), System.getProperty("java.version"));
+        System.out.printf("%8s %-13s %10s %10s %12s %12s %10s%n",
+                          "budget", "engine", "bytes", "serialized", "words/sec", "precision@k", "mean err");
+        for (String budget : budgets) {
+            long bytes = Long.parseLong(budget.trim()) * 1024;
+            for (HeavyHitterEngine.Type type : HeavyHitterEngine.Type.values()) {
+                HeavyHitterEngine engine = null;
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    engine = CountMinSketchStateFactory.newEngine(type, bytes, DEPTH, SEED, k);
+                    long start = System.nanoTime();
+                    for (Batch b : stream) {
+                        engine.addAll(b.items, b.hashes, b.counts, b.n);
+                    }
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                int hits = 0;
+                for (WordCount w : engine.topK()) {
+                    if (exactWords.contains(w.word)) {
+                        hits++;
+                    }
+                }
+                double error = 0;
+                for (WordCount w : exactTopK) {
+                    error += Math.abs(engine.estimateCount(w.word, MurmurHash.hashChars64(w.word)) - w.count) / (double) w.count;
+                }
+                System.out.printf("%7dK %-13s %10d %10d %12.0f %12.3f %10.2e%n", bytes / 1024, type.name().toLowerCase(Locale.ROOT),
+                                  engine.sizeInBytes(), HeavyHitterSerializer.toBytes(engine).length,
+                                  words * 1e9 / best, (double) hits / exactTopK.size(), error / exactTopK.size());
+            }
+        }
+    }
+
+    private static String[] zipfWords(int vocabularySize, int words) {
+        ZipfWordGenerator generator = new ZipfWordGenerator(vocabularySize, 1.0, 42);
+        String[] stream = new String[words];
+        for (int i = 0; i < words; i++) {
+            stream[i] = generator.word(generator.nextRank());
+        }
+        return stream;
+    }
+
+    private static String[] readWords(String file) throws IOException {
+        List<String> words = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(new File(file)), "UTF-8"));
+        try {
+            for (String line; (line = in.readLine()) != null; ) {
+                for (String word : line.split("\\s+")) {
+                    if (!word.isEmpty()) {
+                        words.add(word.toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if (words.isEmpty()) {
+            throw new IOException("No words in " + file);
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    // the first words words of the source (repeated as needed), collapsed BATCH at a time
+    private static List<Batch> batches(String[] source, int words) {
+        List<Batch> batches = new ArrayList<Batch>();
+        WordCountMap batch = new WordCountMap(BATCH);
+        for (int i = 0; i < words; i += BATCH) {
+            batch.clear();
+            for (int j = i; j < Math.min(i + BATCH, words); j++) {
+                batch.add(source[j % source.length], 1);
+            }
+            batches.add(new Batch(batch));
+        }
+        return batches;
+    }
+
+    private static List<WordCount> exactTopK(Map<String, Long> exact, int k) {
+        List<WordCount> all = new ArrayList<WordCount>(exact.size());
+        for (Map.Entry<String, Long> e : exact.entrySet()) {
+            all.add(new WordCount(e.getKey(), e.getValue()));
+        }
+        Collections.sort(all, new Comparator<WordCount>() {
+            public int compare(WordCount x, WordCount y) {
+                return x.count < y.count ? 1 : (x.count > y.count ? -1 : 0);
+            }
+        });
+        return all.subList(0, Math.min(k, all.size()));
+    }
+
+    private static final class Batch {
+        final String[] items;
+        final long[] hashes;
+        final long[] counts;
+        final int n;
+
+        Batch(WordCountMap map) {
+            n = map.size();
+            items = new String[n];
+            hashes = new long[n];
+            counts = new long[n];
+            for (int j = 0; j < n; j++) {
+                items[j] = map.key(j);
+                hashes[j] = map.hash(j);
+                counts[j] = map.count(j);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package storm.starter.trident.project.countmin.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A single-threaded microbenchmark: run() is called over and over, first to
+ * warm up, then in timed iterations. Each iteration reports operations per
+ * second, and, as a GC profiler would, the bytes allocated per operation,
+ * the allocation rate and the number of collections.
+ *
+ * Every run() returns a value that is folded into a sink, so the JIT cannot
+ * drop the work.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public abstract class MicroBenchmark {
+
+    private static volatile long sink;
+
+    private final String name;
+
+    protected MicroBenchmark(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Called once before the warm-up, outside of any measurement. */
+    protected void setUp() {
+    }
+
+    /**
+     * One batch of work.
+     *
+     * @return anything derived from the work done
+     */
+    protected abstract long run();
+
+    /** Number of operations one run() performs. */
+    protected abstract int operationsPerRun();
+
+    /**
+     * Warms up for warmupMillis, then measures iterations times for about
+     * iterationMillis each and prints the mean.
+     */
+    public Result measure(int iterations, long warmupMillis, long iterationMillis) {
+        setUp();
+        long acc = 0;
+        long end = System.nanoTime() + warmupMillis * 1000000L;
+        while (System.nanoTime() < end) {
+            acc += run();
+        }
+
+        double opsPerSecond = 0;
+        double bytesPerOp = 0;
+        double bytesPerSecond = 0;
+        long collections = 0;
+        for (int i = 0; i < iterations; i++) {
+            long gcBefore = collectionCount();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long ops = 0;
+            end = start + iterationMillis * 1000000L;
+            do {
+                acc += run();
+                ops += operationsPerRun();
+            } while (System.nanoTime() < end);
+            long nanos = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            collections += collectionCount() - gcBefore;
+            opsPerSecond += ops * 1e9 / nanos / iterations;
+            bytesPerOp += (double) allocated / ops / iterations;
+            bytesPerSecond += allocated * 1e9 / nanos / iterations;
+        }
+        sink += acc;
+        return new Result(name, opsPerSecond, bytesPerOp, bytesPerSecond, collections);
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    // bytes allocated by this thread so far, or 0 if the JVM cannot tell
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            long bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+            return Math.max(bytes, 0);
+        }
+        return 0;
+    }
+
+    public static final class Result {
+        public final String name;
+        public final double opsPerSecond;
+        public final double bytesPerOp;
+        public final double bytesPerSecond;
+        public final long collections;
+
+        Result(String name, double opsPerSecond, double bytesPerOp, double bytesPerSecond, long collections) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+            this.bytesPerSecond = bytesPerSecond;
+            this.collections = collections;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-44s %12.0f ops/s %10.1f B/op %9.1f MB/s alloc %4d gc",
+                                 name, opsPerSecond, bytesPerOp, bytesPerSecond / (1 << 20), collections);
+        }
+    }
+}
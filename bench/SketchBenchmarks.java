@@ -0,0 +1,419 @@
+package storm.starter.trident.project.countmin.bench;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import storm.starter.trident.project.countmin.filters.BlockedBloomFilter;
+import storm.starter.trident.project.countmin.filters.BloomFilter;
+import storm.starter.trident.project.countmin.filters.StopWordFilter;
+import storm.starter.trident.project.countmin.state.CountMinSketchState;
+import storm.starter.trident.project.countmin.state.CounterTable;
+import storm.starter.trident.project.countmin.state.MurmurHash;
+import storm.starter.trident.project.countmin.state.TopKTracker;
+
+/**
+ * Microbenchmarks of the hot paths of the topology, all fed from the same
+ * reproducible ZipfWordGenerator stream:
+ * <ul>
+ * <li>CountMinSketchState add and estimateCount, for several depths and widths</li>
+ * <li>the same, for each counter width at the same table memory</li>
+ * <li>add with and without a hot-key tier of the heaviest words</li>
+ * <li>batch addAll of distinct words into tables larger than the caches</li>
+ * <li>stop-word filter contains, hits and misses, classic and blocked</li>
+ * <li>MurmurHash.hash against hash64 and hashChars64</li>
+ * <li>Top-K maintenance (TopKTracker) for small and large k</li>
+ * <li>sketch serialize, deserialize and merge at topology sizes</li>
+ * </ul>
+ * Runs offline from the jar with one command:
+ * <pre>
+ * java -cp target/storm-starter-0.9.3-jar-with-dependencies.jar \
+ *     storm.starter.trident.project.countmin.bench.SketchBenchmarks [filter] [iterations] [millis]
+ * </pre>
+ * where filter, if given, only runs the benchmarks whose name contains it.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class SketchBenchmarks {
+
+    static final int VOCABULARY = 100000;
+    static final double EXPONENT = 1.0;
+    static final long SEED = 42;
+    static final int BATCH = 1 << 16;                                        // words per run()
+    static final int STOP_WORDS = 500;                                       // the most frequent ranks play the stop-words
+
+    static final int[] DEPTHS = {5, 10};
+    static final int[] WIDTHS = {2048, 65536};
+    static final int ADD_ALL_BATCH = 16384;                                  // words per addAll batch, before collapsing
+    static final int COUNTER_BYTES = 10 * 65536 * 8;                         // table memory of the counter width comparison
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+        System.out.printf("vocabulary=%d zipf=%.1f seed=%d batch=%d iterations=%d x %d ms, %s %s%n",
+                          VOCABULARY, EXPONENT, SEED, BATCH, iterations, millis,
+                          System.getProperty("java.vm.name"), System.getProperty("java.version"));
+        for (MicroBenchmark benchmark : all()) {
+            if (benchmark.getName().contains(filter)) {
+                System.out.println(benchmark.measure(iterations, millis, millis));
+            }
+        }
+    }
+
+    static List<MicroBenchmark> all() {
+        final ZipfWordGenerator generator = new ZipfWordGenerator(VOCABULARY, EXPONENT, SEED);
+        final int[] ranks = new int[BATCH];
+        final String[] words = new String[BATCH];
+        final long[] hashes = new long[BATCH];
+        final byte[][] bytes = new byte[BATCH][];
+        for (int i = 0; i < BATCH; i++) {
+            ranks[i] = generator.nextRank();
+            words[i] = generator.word(ranks[i]);
+            hashes[i] = MurmurHash.hashChars64(words[i]);
+            bytes[i] = words[i].getBytes(UTF8);
+        }
+
+        List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+
+        for (final int depth : DEPTHS) {
+            for (final int width : WIDTHS) {
+                String shape = " d=" + depth + " w=" + width;
+                benchmarks.add(new BatchBenchmark("countmin.add" + shape) {
+                    CountMinSketchState sketch;
+
+                    protected void setUp() {
+                        sketch = new CountMinSketchState(depth, width, 10, 15);
+                    }
+
+                    protected long run() {
+                        for (String word : words) {
+                            sketch.add(word, 1);
+                        }
+                        return sketch.size();
+                    }
+                });
+                benchmarks.add(new BatchBenchmark("countmin.addHashed" + shape) {
+                    CountMinSketchState sketch;
+
+                    protected void setUp() {
+                        sketch = new CountMinSketchState(depth, width, 10, 15);
+                    }
+
+                    protected long run() {
+                        for (int i = 0; i < BATCH; i++) {
+                            sketch.add(words[i], hashes[i], 1);
+                        }
+                        return sketch.size();
+                    }
+                });
+                benchmarks.add(new BatchBenchmark("countmin.estimateCount" + shape) {
+                    CountMinSketchState sketch;
+
+                    protected void setUp() {
+                        sketch = filled(depth, width, 15, generator, 1000000);
+                    }
+
+                    protected long run() {
+                        long sum = 0;
+                        for (String word : words) {
+                            sum += sketch.estimateCount(word);
+                        }
+                        return sum;
+                    }
+                });
+            }
+        }
+
+        // Trident-sized batches of distinct words, as the updater hands them to addAll
+        final List<String[]> batchWords = new ArrayList<String[]>();
+        final List<long[]> batchHashes = new ArrayList<long[]>();
+        final List<long[]> batchCounts = new ArrayList<long[]>();
+        final int[] distinct = new int[1];
+        for (int from = 0; from < BATCH; from += ADD_ALL_BATCH) {
+            Map<String, Long> counted = new LinkedHashMap<String, Long>();
+            for (int i = from; i < from + ADD_ALL_BATCH; i++) {
+                Long c = counted.get(words[i]);
+                counted.put(words[i], c == null ? 1 : c + 1);
+            }
+            String[] w = counted.keySet().toArray(new String[counted.size()]);
+            long[] h = new long[w.length];
+            long[] c = new long[w.length];
+            for (int i = 0; i < w.length; i++) {
+                h[i] = MurmurHash.hashChars64(w[i]);
+                c[i] = counted.get(w[i]);
+            }
+            batchWords.add(w);
+            batchHashes.add(h);
+            batchCounts.add(c);
+            distinct[0] += w.length;
+        }
+        for (final int width : new int[] {1 << 20, 1 << 22}) {
+            benchmarks.add(new MicroBenchmark("countmin.addAll d=10 w=" + width) {
+                CountMinSketchState sketch;
+
+                protected void setUp() {
+                    sketch = new CountMinSketchState(10, width, 10, 15);
+                }
+
+                protected long run() {
+                    for (int b = 0; b < batchWords.size(); b++) {
+                        String[] w = batchWords.get(b);
+                        sketch.addAll(w, batchHashes.get(b), batchCounts.get(b), w.length);
+                    }
+                    return sketch.size();
+                }
+
+                protected int operationsPerRun() {
+                    return distinct[0];
+                }
+            });
+        }
+
+        // word by word, as without pre-aggregation, with and without a hot-key tier
+        for (final int width : new int[] {65536, 1 << 22}) {
+            for (final int hotKeys : new int[] {0, 64, 256}) {
+                benchmarks.add(new BatchBenchmark("countmin.hotkeys.add h=" + hotKeys + " d=10 w=" + width) {
+                    CountMinSketchState sketch;
+
+                    protected void setUp() {
+                        sketch = new CountMinSketchState(10, width, 10, 15);
+                        sketch.enableHotKeys(hotKeys);
+                    }
+
+                    protected long run() {
+                        for (int i = 0; i < BATCH; i++) {
+                            sketch.add(words[i], hashes[i], 1);
+                        }
+                        return sketch.size();
+                    }
+                });
+            }
+        }
+
+        // 512 KB of counters per sketch: w=65536 longs, w=131072 ints or w=262144 tiered cells
+        for (final CounterTable.Kind counters : CounterTable.Kind.values()) {
+            final int width = COUNTER_BYTES / (10 * bytesPerCounter(counters));
+            String shape = " " + counters.name().toLowerCase() + " d=10 w=" + width;
+            benchmarks.add(new BatchBenchmark("countmin.counters.add" + shape) {
+                CountMinSketchState sketch;
+
+                protected void setUp() {
+                    sketch = new CountMinSketchState(10, width, 10, 15, counters);
+                }
+
+                protected long run() {
+                    for (int i = 0; i < BATCH; i++) {
+                        sketch.add(words[i], hashes[i], 1);
+                    }
+                    return sketch.size();
+                }
+            });
+            benchmarks.add(new BatchBenchmark("countmin.counters.estimateCount" + shape) {
+                CountMinSketchState sketch;
+
+                protected void setUp() {
+                    sketch = filled(10, width, 15, counters, generator, 1000000);
+                }
+
+                protected long run() {
+                    long sum = 0;
+                    for (int i = 0; i < BATCH; i++) {
+                        sum += sketch.estimateCount(words[i], hashes[i]);
+                    }
+                    return sum;
+                }
+            });
+        }
+
+        final String[] stopWords = new String[STOP_WORDS];
+        for (int i = 0; i < STOP_WORDS; i++) {
+            stopWords[i] = generator.word(i);
+        }
+        final String[] hits = new String[BATCH];
+        final String[] misses = new String[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            hits[i] = stopWords[i % STOP_WORDS];
+            misses[i] = generator.word(STOP_WORDS + i % (VOCABULARY - STOP_WORDS));
+        }
+        for (final boolean blocked : new boolean[] {false, true}) {
+            String kind = blocked ? "blocked" : "classic";
+            for (final boolean hit : new boolean[] {true, false}) {
+                benchmarks.add(new BatchBenchmark("bloom.contains." + kind + (hit ? " hit" : " miss")) {
+                    StopWordFilter filter;
+
+                    protected void setUp() {
+                        filter = blocked ? new BlockedBloomFilter(STOP_WORDS, 8, 5) : new BloomFilter(STOP_WORDS, 8, 5);
+                        for (String word : stopWords) {
+                            filter.add(word);
+                        }
+                    }
+
+                    protected long run() {
+                        String[] probes = hit ? hits : misses;
+                        long found = 0;
+                        for (String word : probes) {
+                            if (filter.contains(word)) {
+                                found++;
+                            }
+                        }
+                        return found;
+                    }
+                });
+            }
+        }
+
+        benchmarks.add(new BatchBenchmark("hash.hash32 bytes") {
+            protected long run() {
+                long sum = 0;
+                for (byte[] b : bytes) {
+                    sum += MurmurHash.hash(b, b.length, 0);
+                }
+                return sum;
+            }
+        });
+        benchmarks.add(new BatchBenchmark("hash.hash64 bytes") {
+            protected long run() {
+                long sum = 0;
+                for (byte[] b : bytes) {
+                    sum += MurmurHash.hash64(b, b.length);
+                }
+                return sum;
+            }
+        });
+        benchmarks.add(new BatchBenchmark("hash.hash64 string") {                  // including the UTF-8 encoding
+            protected long run() {
+                long sum = 0;
+                for (String word : words) {
+                    sum += MurmurHash.hash64(word);
+                }
+                return sum;
+            }
+        });
+        benchmarks.add(new BatchBenchmark("hash.hashChars64 string") {
+            protected long run() {
+                long sum = 0;
+                for (String word : words) {
+                    sum += MurmurHash.hashChars64(word);
+                }
+                return sum;
+            }
+        });
+
+        for (final int k : new int[] {15, 1000}) {
+            benchmarks.add(new BatchBenchmark("topk.offer k=" + k) {
+                TopKTracker tracker;
+                long[] counts;
+
+                protected void setUp() {
+                    tracker = new TopKTracker(k);
+                    counts = new long[VOCABULARY];
+                }
+
+                // offers every word with its running count, as the sketch does with its estimate
+                protected long run() {
+                    long accepted = 0;
+                    for (int i = 0; i < BATCH; i++) {
+                        if (tracker.offer(words[i], hashes[i], ++counts[ranks[i]])) {
+                            accepted++;
+                        }
+                    }
+                    return accepted;
+                }
+            });
+        }
+
+        for (final int width : WIDTHS) {
+            final String shape = " d=10 w=" + width;
+            benchmarks.add(new MicroBenchmark("sketch.serialize" + shape) {
+                CountMinSketchState sketch;
+
+                protected void setUp() {
+                    sketch = filled(10, width, 15, generator, 1000000);
+                }
+
+                protected long run() {
+                    return CountMinSketchState.serialize(sketch).length;
+                }
+
+                protected int operationsPerRun() {
+                    return 1;
+                }
+            });
+            benchmarks.add(new MicroBenchmark("sketch.deserialize" + shape) {
+                byte[] data;
+
+                protected void setUp() {
+                    data = CountMinSketchState.serialize(filled(10, width, 15, generator, 1000000));
+                }
+
+                protected long run() {
+                    return CountMinSketchState.deserialize(data).size();
+                }
+
+                protected int operationsPerRun() {
+                    return 1;
+                }
+            });
+            benchmarks.add(new MicroBenchmark("sketch.merge4" + shape) {
+                CountMinSketchState[] partitions;
+
+                protected void setUp() {
+                    partitions = new CountMinSketchState[4];
+                    for (int i = 0; i < partitions.length; i++) {
+                        partitions[i] = filled(10, width, 15, new ZipfWordGenerator(VOCABULARY, EXPONENT, SEED + i), 250000);
+                    }
+                }
+
+                protected long run() {
+                    return CountMinSketchState.merge(partitions).size();
+                }
+
+                protected int operationsPerRun() {
+                    return 1;
+                }
+            });
+        }
+
+        return benchmarks;
+    }
+
+    static CountMinSketchState filled(int depth, int width, int k, ZipfWordGenerator generator, int words) {
+        return filled(depth, width, k, CounterTable.Kind.LONG, generator, words);
+    }
+
+    static CountMinSketchState filled(int depth, int width, int k, CounterTable.Kind counters,
+                                      ZipfWordGenerator generator, int words) {
+        CountMinSketchState sketch = new CountMinSketchState(depth, width, 10, k, counters);
+        for (int i = 0; i < words; i++) {
+            sketch.add(generator.next(), 1);
+        }
+        return sketch;
+    }
+
+    static int bytesPerCounter(CounterTable.Kind counters) {
+        switch (counters) {
+            case INT:
+                return 4;
+            case TIERED:
+                return 2;
+            default:
+                return 8;
+        }
+    }
+
+    abstract static class BatchBenchmark extends MicroBenchmark {
+        BatchBenchmark(String name) {
+            super(name);
+        }
+
+        protected int operationsPerRun() {
+            return BATCH;
+        }
+    }
+}
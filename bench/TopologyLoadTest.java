@@ -0,0 +1,178 @@
+package storm.starter.trident.project.countmin.bench;
+
+import java.util.Arrays;
+
+import backtype.storm.Config;
+import backtype.storm.LocalCluster;
+import backtype.storm.LocalDRPC;
+import backtype.storm.generated.KillOptions;
+import backtype.storm.generated.TopologySummary;
+
+import storm.starter.trident.project.countmin.CountMinSketchTopology;
+import storm.starter.trident.project.countmin.spouts.ReplaySpout;
+
+/**
+ * Runs the whole CountMinSketchTopology in a LocalCluster, fed by a
+ * ReplaySpout of recorded tweets at increasing target rates. It reports,
+ * for every rate:
+ * <ul>
+ * <li>the sustained rate, in tweets committed per second</li>
+ * <li>batch commit latency, from the spout emitting a batch to Trident
+ * acking it</li>
+ * <li>DRPC "get_count" latency, for queries issued during the run</li>
+ * </ul>
+ * The run stops at the first rate the topology cannot keep up with. That
+ * rate is the saturation point.
+ *
+ * Usage: TopologyLoadTest &lt;tweet files or directories, comma separated&gt;
+ *        [rates, comma separated] [seconds per rate] [batch size]
+ *
+ * The topology settings (countmin.parallelism, ...) are read from the
+ * system properties as usual.
+ *
+ * All rates share one LocalDRPC, so the next rate's topology is only
+ * submitted once the last one is gone: until then its DRPC spout would
+ * still take "get_count" requests and leave them unanswered. A plain
+ * killTopology waits out the message timeout first, so the spout is
+ * stopped, the topology drained of its batches and then killed at once
+ * instead.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class TopologyLoadTest {
+
+    static final String DEFAULT_RATES = "250,500,1000,2000,4000,8000,16000,32000";
+    static final double KEEPS_UP = 0.9;                                 // sustained / target below this is saturation
+    static final long WARMUP_MILLIS = 5000;                             // after the first batch commits
+    static final long START_TIMEOUT_MILLIS = 120000;
+    static final long QUERY_EVERY_MILLIS = 500;
+    static final long KILL_TIMEOUT_MILLIS = 60000;
+    static final long POLL_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: TopologyLoadTest <tweet files> [rates] [seconds per rate] [batch size]");
+            System.exit(2);
+        }
+        String[] paths = args[0].split(",");
+        String[] rates = (args.length > 1 ? args[1] : DEFAULT_RATES).split(",");
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 30;
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+
+        Config conf = new Config();
+        conf.setDebug(false);
+        conf.setMaxSpoutPending(10);
+
+        LocalCluster cluster = new LocalCluster();
+        LocalDRPC drpc = new LocalDRPC();
+        System.out.printf("%10s %12s %12s %10s %10s %10s %10s%n",
+                          "target/s", "sustained/s", "skipped", "batch p50", "batch p99", "drpc p50", "drpc p99");
+        try {
+            for (String r : rates) {
+                double rate = Double.parseDouble(r);
+                String name = "load-" + r;
+                ReplaySpout.Stats stats = ReplaySpout.Stats.get(name);
+                ReplaySpout spout = new ReplaySpout(batchSize, paths).withRate(rate).looping(true).withStats(name);
+                cluster.submitTopology(name, conf, CountMinSketchTopology.buildTopology(spout, drpc));
+
+                awaitFirstCommit(stats, name);
+                Thread.sleep(WARMUP_MILLIS);
+                stats.reset();
+                long start = System.nanoTime();
+                long end = start + seconds * 1000000000L;
+                long[] queries = new long[(int) (seconds * 1000 / QUERY_EVERY_MILLIS) + 1];
+                int n = 0;
+                while (System.nanoTime() < end) {
+                    long t = System.nanoTime();
+                    drpc.execute("get_count", "TopK");
+                    if (n < queries.length) {
+                        queries[n++] = System.nanoTime() - t;
+                    }
+                    Thread.sleep(Math.max(0, QUERY_EVERY_MILLIS - (System.nanoTime() - t) / 1000000L));
+                }
+                double sustained = stats.committed.get() * 1e9 / (System.nanoTime() - start);
+                long skipped = stats.skipped.get();
+                double batchP50 = stats.latencyMillis(0.5);
+                double batchP99 = stats.latencyMillis(0.99);
+                kill(cluster, name, stats, Math.max(1000, (long) (2000 * batchSize / rate)));
+
+                long[] sorted = Arrays.copyOf(queries, n);
+                Arrays.sort(sorted);
+                System.out.printf("%10.0f %12.0f %12d %8.1fms %8.1fms %8.1fms %8.1fms%n",
+                                  rate, sustained, skipped, batchP50, batchP99,
+                                  quantileMillis(sorted, 0.5), quantileMillis(sorted, 0.99));
+                if (sustained < KEEPS_UP * rate) {
+                    System.out.printf("Saturated at %.0f tweets/s (sustained %.0f)%n", rate, sustained);
+                    break;
+                }
+            }
+        } finally {
+            drpc.shutdown();
+            cluster.shutdown();
+        }
+    }
+
+    // a LocalCluster takes seconds to start a topology, which must not count against the rate
+    static void awaitFirstCommit(ReplaySpout.Stats stats, String name) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (stats.committed.get() == 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Topology " + name + " committed no batch in " + START_TIMEOUT_MILLIS + " ms");
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    // Stops the spout and waits until it has neither emitted nor committed a
+    // tweet for quietMillis (two batch intervals), then kills the topology at
+    // once and waits until the cluster no longer lists it. Killed in the
+    // middle of a batch, the spout can block on a queue nobody drains any
+    // more and hang the worker's shutdown. (Deactivating the topology did
+    // not stop the Trident spout of a LocalCluster from emitting.)
+    static void kill(LocalCluster cluster, String name, ReplaySpout.Stats stats, long quietMillis) throws Exception {
+        stats.stop();
+        long deadline = System.currentTimeMillis() + KILL_TIMEOUT_MILLIS;
+        long seen = -1;
+        long quietSince = 0;
+        while (true) {
+            long activity = stats.emitted.get() + stats.committedBatches.get();
+            if (activity != seen) {
+                seen = activity;
+                quietSince = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - quietSince >= quietMillis) {
+                break;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Topology " + name + " still emitting " + KILL_TIMEOUT_MILLIS + " ms after its spout was stopped");
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+
+        KillOptions now = new KillOptions();
+        now.set_wait_secs(0);
+        cluster.killTopologyWithOpts(name, now);
+        deadline = System.currentTimeMillis() + KILL_TIMEOUT_MILLIS;
+        while (isListed(cluster, name)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Topology " + name + " still running " + KILL_TIMEOUT_MILLIS + " ms after it was killed");
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    static boolean isListed(LocalCluster cluster, String name) {
+        for (TopologySummary topology : cluster.getClusterInfo().get_topologies()) {
+            if (topology.get_name().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static double quantileMillis(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (quantile * sorted.length))] / 1e6;
+    }
+}
@@ -0,0 +1,95 @@
+package storm.starter.trident.project.countmin.bench;
+
+import java.util.Random;
+
+/**
+ * Reproducible synthetic stream of tweet-like words whose frequencies follow
+ * a Zipf distribution, the way word frequencies in tweets do.
+ *
+ * The same (vocabulary, exponent, seed) always gives the same words in the
+ * same order.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class ZipfWordGenerator {
+
+    private final String[] vocabulary;
+    private final double[] cdf;
+    private final Random random;
+
+    /**
+     * @param vocabularySize number of distinct words
+     * @param exponent       Zipf exponent, ~1.0 for natural language
+     * @param seed           random seed
+     */
+    public ZipfWordGenerator(int vocabularySize, double exponent, long seed) {
+        random = new Random(seed);
+        vocabulary = new String[vocabularySize];
+        cdf = new double[vocabularySize];
+        double sum = 0;
+        for (int i = 0; i < vocabularySize; i++) {
+            vocabulary[i] = makeWord(i);
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < vocabularySize; i++) {
+            cdf[i] /= sum;
+        }
+    }
+
+    /** The word of the given popularity rank, 0 being the most frequent. */
+    public String word(int rank) {
+        return vocabulary[rank];
+    }
+
+    public int vocabularySize() {
+        return vocabulary.length;
+    }
+
+    /** Popularity rank of the next word in the stream. */
+    public int nextRank() {
+        double u = random.nextDouble();
+        int lo = 0;
+        int hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    public String next() {
+        return vocabulary[nextRank()];
+    }
+
+    /** The next n words of the stream. Words are shared, not copied. */
+    public String[] next(int n) {
+        String[] words = new String[n];
+        for (int i = 0; i < n; i++) {
+            words[i] = next();
+        }
+        return words;
+    }
+
+    // 3 to 10 lowercase letters, occasionally a hashtag, distinct for every rank
+    private String makeWord(int rank) {
+        StringBuilder word = new StringBuilder();
+        if (rank % 17 == 16) {
+            word.append('#');
+        }
+        int n = rank;
+        do {
+            word.append((char) ('a' + n % 26));
+            n /= 26;
+        } while (n > 0);
+        while (word.length() < 3 + (rank * 7) % 8) {
+            word.append((char) ('a' + (rank * 31 + word.length()) % 26));
+        }
+        word.append('_').append(Integer.toString(rank, 36));
+        return word.toString();
+    }
+}
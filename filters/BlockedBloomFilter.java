@@ -0,0 +1,148 @@
+package storm.starter.trident.project.countmin.filters;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.LongBuffer;
+
+import storm.starter.trident.project.countmin.state.MurmurHash;
+
+/**
+ * Cache-line blocked Bloom filter.
+ *
+ * The bits are kept in a long[] split into 512-bit blocks (8 longs, one
+ * 64-byte cache line). A key is hashed once with a 64 bit hash: the upper
+ * half picks the block, and all noHashes probe positions inside that block
+ * come from the hash by double hashing. A lookup therefore scans the key's
+ * chars once and touches a single cache line, where BloomFilter scans them
+ * noHashes times and probes noHashes random lines.
+ *
+ * Confining the probes to one block costs a little accuracy: at equal size
+ * the false-positive rate is slightly higher than an unblocked filter's.
+ *
+ * The bits live in a LongBuffer, either on the heap or in a read-only
+ * memory-mapped filter image shared by every executor of a worker (see
+ * StopWordImage).
+ *
+ * @author SWAGAT
+ */
+public class BlockedBloomFilter implements StopWordFilter {
+  private static final long serialVersionUID = 1L;
+
+  static final int MAX_HASHES = 16;
+  static final int LONGS_PER_BLOCK = 8;
+  static final int BLOCK_BITS = 64 * LONGS_PER_BLOCK;
+
+  private transient LongBuffer data;
+  private int noHashes;
+  private int blockMask;
+
+  /********************************************************
+  *******************BlockedBloomFilter********************
+  ********************************************************/
+  public BlockedBloomFilter(int noItems, int bitsPerItem, int noHashes) {
+    long bitsRequired = (long) noItems * bitsPerItem;
+    if (bitsRequired >= Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Bloom filter would be too big");
+    }
+    if (noHashes < 1 || noHashes > MAX_HASHES)
+      throw new IllegalArgumentException("Invalid number of hashes");
+    int blocks = 1;
+    while ((long) blocks * BLOCK_BITS < bitsRequired)
+      blocks <<= 1;
+    this.data = LongBuffer.wrap(new long[blocks * LONGS_PER_BLOCK]);
+    this.noHashes = noHashes;
+    this.blockMask = blocks - 1;
+  }
+
+  /********************************************************
+  *******************BlockedBloomFilter********************
+  ********************************************************/
+  /**
+   * Filter over existing bits, e.g. a mapped filter image. The buffer must
+   * hold a power-of-two number of blocks; it is read from, and written to
+   * by add, in place.
+   */
+  public BlockedBloomFilter(LongBuffer data, int noHashes) {
+    int blocks = data.capacity() / LONGS_PER_BLOCK;
+    if (blocks < 1 || data.capacity() % LONGS_PER_BLOCK != 0 || Integer.bitCount(blocks) != 1)
+      throw new IllegalArgumentException("Filter must be a power-of-two number of blocks");
+    if (noHashes < 1 || noHashes > MAX_HASHES)
+      throw new IllegalArgumentException("Invalid number of hashes");
+    this.data = data;
+    this.noHashes = noHashes;
+    this.blockMask = blocks - 1;
+  }
+
+  public int sizeInBits() {
+    return data.capacity() * 64;
+  }
+
+  public int getNoHashes() {
+    return noHashes;
+  }
+
+  /** The filter's bits, without copying. */
+  public LongBuffer bits() {
+    return data.duplicate();
+  }
+
+  /********************************************************
+  *************************add*****************************
+  ********************************************************/
+  public void add(String s) {
+    long hash = MurmurHash.hashChars64(s);
+    int base = block(hash);
+    int h1 = (int) hash;
+    int h2 = probeStep(hash);
+    for (int n = 0; n < noHashes; n++) {
+      int bitNo = (h1 + n * h2) & (BLOCK_BITS - 1);
+      int i = base + (bitNo >>> 6);
+      data.put(i, data.get(i) | (1L << bitNo));
+    }
+  }
+
+  /********************************************************
+  ************************contains*************************
+  ********************************************************/
+  public boolean contains(String s) {
+    return containsHash(MurmurHash.hashChars64(s));
+  }
+
+  public boolean containsHash(long hash) {
+    int base = block(hash);
+    int h1 = (int) hash;
+    int h2 = probeStep(hash);
+    for (int n = 0; n < noHashes; n++) {
+      int bitNo = (h1 + n * h2) & (BLOCK_BITS - 1);
+      if ((data.get(base + (bitNo >>> 6)) & (1L << bitNo)) == 0) return false;
+    }
+    return true;
+  }
+
+  // index of the first long of the key's block, from the upper 32 bits
+  private int block(long hash) {
+    return ((int) (hash >>> 32) & blockMask) * LONGS_PER_BLOCK;
+  }
+
+  // odd step from the top bits, so the probes of a key are all distinct
+  private static int probeStep(long hash) {
+    return (int) (hash >>> 54) | 1;
+  }
+
+  // a mapped buffer cannot be serialized, so the bits are written out as longs
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(data.capacity());
+    for (int i = 0; i < data.capacity(); i++)
+      out.writeLong(data.get(i));
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    long[] bits = new long[in.readInt()];
+    for (int i = 0; i < bits.length; i++)
+      bits[i] = in.readLong();
+    data = LongBuffer.wrap(bits);
+  }
+}
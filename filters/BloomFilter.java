@@ -5,41 +5,10 @@
 package storm.starter.trident.project.countmin.filters;
 import java.io.*;
 import java.util.*;
+import storm.starter.trident.project.countmin.state.MurmurHash;
 
-public class BloomFilter implements Serializable{
+public class BloomFilter implements StopWordFilter {
   private static final int MAX_HASHES = 8;
-  private static final long[] byteTable;
-  private static final long HSTART = 0xBB40E64DA205B064L;
-  private static final long HMULT = 7664345821815920749L;
-  
-  /********************************************************
-  *******************static********************************
-  *********************************************************/
-  static {
-    byteTable = new long[256 * MAX_HASHES];
-    long h = 0x544B2FBACAAF1684L;
-    for (int i = 0; i < byteTable.length; i++) {
-      for (int j = 0; j < 31; j++)
-        h = (h >>> 7) ^ h; h = (h << 11) ^ h; h = (h >>> 10) ^ h;
-      byteTable[i] = h;
-    }
-  }
-  
-  /********************************************************
-  *******************hashCode******************************
-  ********************************************************/
-  private long hashCode(String s, int hcNo) {
-    long h = HSTART;
-    final long hmult = HMULT;
-    final long[] ht = byteTable;
-    int startIx = 256 * hcNo;
-    for (int len = s.length(), i = 0; i < len; i++) {
-      char ch = s.charAt(i);
-      h = (h * hmult) ^ ht[startIx + (ch & 0xff)];
-      h = (h * hmult) ^ ht[startIx + ((ch >>> 8) & 0xff)];
-    }
-    return h;
-  }
 
   private final BitSet data;
   private final int noHashes;
@@ -82,9 +51,19 @@ public class BloomFilter implements Serializable{
   *************************add*****************************
   ********************************************************/
   public void add(String s) {
+    addHash(MurmurHash.hashChars64(s));
+  }
+
+  /**
+   * add() for a key whose MurmurHash.hashChars64 hash is already known. The
+   * noHashes bit positions are h1 + n * h2 of its two halves, so a key is
+   * hashed once however many bits it sets.
+   */
+  public void addHash(long hash) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
     for (int n = 0; n < noHashes; n++) {
-      long hc = hashCode(s, n);
-      int bitNo = (int) (hc) & this.hashMask;
+      int bitNo = (h1 + n * h2) & this.hashMask;
       data.set(bitNo);
     }
   }
@@ -93,9 +72,14 @@ public class BloomFilter implements Serializable{
   ************************contains*************************
   ********************************************************/
   public boolean contains(String s) {
+    return containsHash(MurmurHash.hashChars64(s));
+  }
+
+  public boolean containsHash(long hash) {
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32) | 1;
     for (int n = 0; n < noHashes; n++) {
-      long hc = hashCode(s, n);
-      int bitNo = (int) (hc) & this.hashMask;
+      int bitNo = (h1 + n * h2) & this.hashMask;
       if (!data.get(bitNo)) return false;
     }
     return true;
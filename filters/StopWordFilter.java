@@ -0,0 +1,22 @@
+package storm.starter.trident.project.countmin.filters;
+
+import java.io.Serializable;
+
+/**
+ * Set membership test used by the Bloom Trident filter to drop stop-words.
+ *
+ * @author SWAGAT
+ */
+public interface StopWordFilter extends Serializable {
+
+  void add(String s);
+
+  /** True if s was added, or (for probabilistic filters) a false positive. */
+  boolean contains(String s);
+
+  /**
+   * contains() for a key whose MurmurHash.hashChars64 hash is already known,
+   * so the key itself is not needed.
+   */
+  boolean containsHash(long hash);
+}
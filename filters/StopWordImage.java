@@ -0,0 +1,186 @@
+package storm.starter.trident.project.countmin.filters;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Prebuilt stop-word filter images.
+ *
+ * build() compiles a stop-word list (one word per line) into a binary
+ * BlockedBloomFilter image, sized from the actual number of words. map()
+ * memory-maps such an image read-only; every caller in the JVM asking for
+ * the same file gets the same filter, so all executors of a worker share
+ * one off-heap copy and start without re-reading the word list.
+ *
+ * Image layout (little endian): magic "SWBF", version, noHashes, number of
+ * words, number of longs, padding to 24 bytes, then the filter's longs.
+ *
+ * Build step: java storm.starter.trident.project.countmin.filters.StopWordImage
+ *             data/stop-words.txt data/stop-words.bloom [bitsPerItem] [noHashes]
+ *
+ * @author SWAGAT
+ */
+public class StopWordImage {
+
+  static final int MAGIC = 0x46425753;                                // "SWBF" read little endian
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 24;                                 // keeps the longs 8-byte aligned
+
+  private static final ConcurrentMap<String, StopWordFilter> shared = new ConcurrentHashMap<String, StopWordFilter>();
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: StopWordImage <stop-words.txt> <image> [bitsPerItem] [noHashes]");
+      System.exit(1);
+    }
+    int bitsPerItem = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+    int noHashes = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+    int words = build(new File(args[0]), new File(args[1]), bitsPerItem, noHashes);
+    System.out.println("Wrote " + words + " stop-words to " + args[1]);
+  }
+
+  /**
+   * Compiles a word list into a filter image.
+   *
+   * @return number of words in the list
+   */
+  public static int build(File wordList, File image, int bitsPerItem, int noHashes) throws IOException {
+    List<String> words = readWords(wordList);
+    BlockedBloomFilter filter = new BlockedBloomFilter(Math.max(words.size(), 1), bitsPerItem, noHashes);
+    for (String word : words) {
+      filter.add(word);
+    }
+    LongBuffer bits = filter.bits();
+
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bits.capacity() * 8).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(noHashes).putInt(words.size()).putInt(bits.capacity());
+    buffer.position(HEADER_BYTES);
+    buffer.asLongBuffer().put(bits);
+    buffer.rewind();
+
+    File tmp = new File(image.getPath() + ".tmp");
+    RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+    try {
+      out.setLength(0);
+      FileChannel channel = out.getChannel();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(image) && !(image.delete() && tmp.renameTo(image))) {
+      throw new IOException("Cannot replace " + image);
+    }
+    return words.size();
+  }
+
+  /**
+   * Memory-maps a filter image read-only, once per JVM and file.
+   */
+  public static StopWordFilter map(File image) throws IOException {
+    String key = "image:" + image.getCanonicalPath();
+    StopWordFilter filter = shared.get(key);
+    if (filter == null) {
+      StopWordFilter mapped = new ReadOnlyFilter(mapImage(image));
+      filter = shared.putIfAbsent(key, mapped);
+      if (filter == null) {
+        filter = mapped;
+      }
+    }
+    return filter;
+  }
+
+  /**
+   * Builds a filter on the heap straight from a word list, sized from the
+   * number of words, once per JVM and settings. Used when no image is
+   * available.
+   */
+  public static StopWordFilter fromWordList(File wordList, boolean blocked, int bitsPerItem, int noHashes) throws IOException {
+    String key = "list:" + wordList.getCanonicalPath() + ":" + blocked + ":" + bitsPerItem + ":" + noHashes;
+    StopWordFilter filter = shared.get(key);
+    if (filter == null) {
+      List<String> words = readWords(wordList);
+      int noItems = Math.max(words.size(), 1);
+      StopWordFilter built = blocked ? new BlockedBloomFilter(noItems, bitsPerItem, noHashes)
+                                     : new BloomFilter(noItems, bitsPerItem, noHashes);
+      for (String word : words) {
+        built.add(word);
+      }
+      filter = shared.putIfAbsent(key, built);
+      if (filter == null) {
+        filter = built;
+      }
+    }
+    return filter;
+  }
+
+  static BlockedBloomFilter mapImage(File image) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(image, "r");
+    try {
+      FileChannel channel = in.getChannel();
+      if (channel.size() < HEADER_BYTES) {
+        throw new IOException("Not a stop-word filter image: " + image);
+      }
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());   // stays valid after close
+      mapped.order(ByteOrder.LITTLE_ENDIAN);
+      if (mapped.getInt(0) != MAGIC) {
+        throw new IOException("Not a stop-word filter image: " + image);
+      }
+      if (mapped.getInt(4) != VERSION) {
+        throw new IOException("Unsupported stop-word filter image version " + mapped.getInt(4) + " in " + image);
+      }
+      int noHashes = mapped.getInt(8);
+      int longs = mapped.getInt(16);
+      if (HEADER_BYTES + (long) longs * 8 != channel.size()) {
+        throw new IOException("Truncated stop-word filter image: " + image);
+      }
+      mapped.position(HEADER_BYTES);
+      return new BlockedBloomFilter(mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer(), noHashes);
+    } finally {
+      in.close();
+    }
+  }
+
+  static List<String> readWords(File wordList) throws IOException {
+    List<String> words = new ArrayList<String>();
+    BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(wordList), "UTF-8"));
+    try {
+      String s;
+      while ((s = br.readLine()) != null) {
+        words.add(s);
+      }
+    } finally {
+      br.close();
+    }
+    return words;
+  }
+
+  // a mapped image is shared, so adding to it is not allowed
+  private static final class ReadOnlyFilter extends BlockedBloomFilter {
+    private static final long serialVersionUID = 1L;
+
+    ReadOnlyFilter(BlockedBloomFilter filter) {
+      super(filter.bits(), filter.getNoHashes());
+    }
+
+    @Override
+    public void add(String s) {
+      throw new UnsupportedOperationException("Mapped stop-word filters are read-only");
+    }
+  }
+}
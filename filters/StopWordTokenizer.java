@@ -0,0 +1,123 @@
+package storm.starter.trident.project.countmin.filters;
+
+import storm.trident.operation.BaseFunction;
+import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
+import storm.trident.tuple.TridentTuple;
+import backtype.storm.tuple.Values;
+import storm.starter.trident.project.countmin.state.MurmurHash;
+import storm.starter.trident.project.countmin.state.SketchMetrics;
+import storm.starter.trident.project.countmin.state.WordCountMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+* Split, ToLowerCase and Bloom in one function: scans a sentence once,
+* folds each space-delimited word to lowercase while copying it into a
+* scratch buffer, hashes the folded chars and checks the stop-word filter
+* on that hash. A String is only created for words that are kept, and the
+* tweet's words are emitted as (word, count, hash) tuples, one per distinct
+* word. The hash is what the aggregator, the CountMin state and the Top-K
+* index use, so a word's chars are only hashed here.
+*
+* The words counted are exactly those of the Split -> ToLowerCase -> Bloom
+* chain: like Split, zero-length words (from leading, trailing or
+* consecutive spaces) are skipped rather than emitted.
+*
+* @author SWAGAT
+*/
+public class StopWordTokenizer extends BaseFunction {
+
+	int bitsPerItem = 8; 							// no.of bits per entry in the BloomFilter
+	int noHashes = 5;								// no.of Hash functions
+	boolean blocked;								// use BlockedBloomFilter instead of BloomFilter
+	String DATA_PATH;
+	String IMAGE_PATH;
+
+	transient StopWordFilter stopwords;
+	transient boolean asciiFold;					// whether 'A'-'Z' -> 'a'-'z' matches String.toLowerCase() in this locale
+	transient char[] buffer;						// folded chars of the current word
+	transient WordCountMap words;					// kept words of the current tweet
+	transient SketchMetrics.Ratio rejected;			// fraction of words dropped as stop-words
+
+public StopWordTokenizer()
+{
+	this(true);
+}
+
+public StopWordTokenizer(boolean blocked)
+{
+	DATA_PATH = "data/stop-words.txt";		//The input data stream for stop-words
+	IMAGE_PATH = "data/stop-words.bloom";	//Prebuilt filter image, used instead of the list when present
+	this.blocked = blocked;
+}
+
+	@Override
+public void prepare(Map conf, TridentOperationContext context) {
+
+	stopwords = Bloom.load(DATA_PATH, IMAGE_PATH, blocked, bitsPerItem, noHashes);
+	String language = Locale.getDefault().getLanguage();
+	asciiFold = !"tr".equals(language) && !"az".equals(language);	// dotted/dotless i
+	buffer = new char[64];
+	words = new WordCountMap(32);
+	rejected = context.registerMetric("stopwords.rejection_rate", new SketchMetrics.Ratio(), SketchMetrics.bucketSecs(conf));
+}
+
+public void execute(TridentTuple tuple, TridentCollector collector) {
+
+	String sentence = tuple.getString(0);
+	words.clear();
+
+	if (sentence.indexOf(' ') < 0) {
+		word(sentence, 0, sentence.length());							// no space: the sentence is one word
+	}
+	else {
+		int end = sentence.length();
+		int start = 0;
+		for (int i = 0; i <= end; i++) {
+			if (i == end || sentence.charAt(i) == ' ') {
+				word(sentence, start, i);
+				start = i + 1;
+			}
+		}
+	}
+
+	for (int i = 0; i < words.size(); i++) {
+		collector.emit(new Values(words.key(i), words.count(i), words.hash(i)));
+	}
+}
+
+// folds, hashes and filters sentence[from, to); empty words are skipped, as by Split
+private void word(String sentence, int from, int to) {
+
+	int length = to - from;
+	if (length == 0)
+		return;
+	if (buffer.length < length)
+		buffer = new char[Math.max(length, 2 * buffer.length)];
+
+	for (int i = 0; i < length; i++) {
+		char c = sentence.charAt(from + i);
+		if (c >= 0x80 || !asciiFold) {
+			keep(sentence.substring(from, to).toLowerCase());			// leave non-ASCII case folding to String.toLowerCase()
+			return;
+		}
+		buffer[i] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	long hash = MurmurHash.hashChars64(buffer, 0, length);
+	boolean stopword = stopwords.containsHash(hash);
+	rejected.record(stopword);
+	if (!stopword)
+		words.add(new String(buffer, 0, length), hash, 1);
+}
+
+private void keep(String word) {
+
+	long hash = MurmurHash.hashChars64(word);
+	boolean stopword = stopwords.containsHash(hash);
+	rejected.record(stopword);
+	if (!stopword)
+		words.add(word, hash, 1);
+}
+}
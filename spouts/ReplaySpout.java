@@ -0,0 +1,356 @@
+package storm.starter.trident.project.countmin.spouts;
+
+import backtype.storm.Config;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+import storm.trident.operation.TridentCollector;
+import storm.trident.spout.IBatchSpout;
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.json.DataObjectFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Drop-in replacement for TwitterSampleSpout that replays recorded tweets
+ * from local files instead of the live stream, so the topology can run
+ * without credentials or network access.
+ *
+ * Files hold one tweet per line as Twitter's JSON (as saved from the
+ * streaming API); files ending in ".gz" are gunzipped on the fly. A
+ * directory stands for all of its files, in name order. Lines that are not
+ * tweets (deletes, limit notices, blank lines) are skipped. Tweets are
+ * emitted as twitter4j Statuses in the "tweet" field, like the live spout.
+ *
+ * Pacing:
+ * <ul>
+ * <li>withRate: at most this many tweets per second</li>
+ * <li>withTimeCompression: keep the recorded gaps between tweets
+ * (created_at), divided by the factor</li>
+ * <li>looping: start over at the first file once the last one is done,
+ * instead of going idle</li>
+ * </ul>
+ * A batch is replayed as it was first emitted if Trident asks for it again.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class ReplaySpout implements IBatchSpout {
+
+    private final List<String> paths;
+    private final int batchSize;
+    private double rate;                                                // tweets per second, 0: unlimited
+    private double timeCompression;                                     // 0: ignore the recorded timestamps
+    private boolean loop;
+    private String statsName;
+
+    private transient List<File> files;
+    private transient int nextFile;
+    private transient BufferedReader reader;
+    private transient Map<Long, Batch> batches;                         // emitted, not yet acked
+    private transient long paceStart;                                   // System.nanoTime() at the start of this pass
+    private transient long paced;                                       // tweets emitted in this pass
+    private transient long firstCreated;                                // created_at of the first tweet of this pass, -1 if none yet
+    private transient Stats stats;
+
+    /**
+     * @param batchSize maximum number of tweets per batch
+     * @param paths     JSON-lines files (optionally gzip'd) or directories of them
+     */
+    public ReplaySpout(int batchSize, String... paths) {
+        if (batchSize < 1 || paths.length == 0) {
+            throw new IllegalArgumentException("Need a positive batch size and at least one path");
+        }
+        this.batchSize = batchSize;
+        this.paths = new ArrayList<String>(Arrays.asList(paths));
+    }
+
+    public ReplaySpout withRate(double tweetsPerSecond) {
+        this.rate = tweetsPerSecond;
+        return this;
+    }
+
+    /**
+     * @param factor 1 replays tweets at their recorded pace, 60 replays an
+     *               hour of tweets in a minute
+     */
+    public ReplaySpout withTimeCompression(double factor) {
+        this.timeCompression = factor;
+        return this;
+    }
+
+    public ReplaySpout looping(boolean loop) {
+        this.loop = loop;
+        return this;
+    }
+
+    /**
+     * Records emitted and committed tweets and batch latencies in
+     * Stats.get(name), for harnesses running the topology in the same JVM.
+     */
+    public ReplaySpout withStats(String name) {
+        this.statsName = name;
+        return this;
+    }
+
+    public void open(Map conf, TopologyContext context) {
+        files = new ArrayList<File>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                File[] children = file.listFiles();
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.isFile() && !child.isHidden()) {
+                        files.add(child);
+                    }
+                }
+            } else if (file.isFile()) {
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No tweet files in " + paths);
+        }
+        batches = new HashMap<Long, Batch>();
+        stats = statsName != null ? Stats.get(statsName) : new Stats();
+        startPass();
+    }
+
+    public void emitBatch(long batchId, TridentCollector collector) {
+        Batch batch = batches.get(batchId);
+        if (batch == null) {
+            List<Status> tweets = stats.stopped ? Collections.<Status>emptyList() : nextTweets();
+            if (tweets.isEmpty()) {
+                sleep(50);                                              // out of tweets and not looping, or stopped
+                return;
+            }
+            batch = new Batch(tweets);
+            batches.put(batchId, batch);
+            stats.emitted.addAndGet(tweets.size());
+        }
+        for (Status tweet : batch.tweets) {
+            collector.emit(new Values(tweet));
+        }
+    }
+
+    public void ack(long batchId) {
+        Batch batch = batches.remove(batchId);
+        if (batch != null) {
+            stats.committed(batch.tweets.size(), System.nanoTime() - batch.emittedAt);
+        }
+    }
+
+    public void close() {
+        closeReader();
+    }
+
+    public Map getComponentConfiguration() {
+        Config conf = new Config();
+        conf.setMaxTaskParallelism(1);                                  // one reader of the files
+        return conf;
+    }
+
+    public Fields getOutputFields() {
+        return new Fields("tweet");
+    }
+
+    // Reads up to batchSize tweets, then waits until the last of them is due.
+    private List<Status> nextTweets() {
+        List<Status> tweets = new ArrayList<Status>(batchSize);
+        long due = 0;
+        String line;
+        while (tweets.size() < batchSize && (line = nextLine()) != null) {
+            Status tweet = parse(line);
+            if (tweet == null) {
+                stats.skipped.incrementAndGet();
+                continue;
+            }
+            tweets.add(tweet);
+            due = Math.max(due, dueNanos(tweet));
+            paced++;
+        }
+        long wait = due - (System.nanoTime() - paceStart);
+        if (wait > 0) {
+            sleep(wait / 1000000L);
+        }
+        return tweets;
+    }
+
+    // Offset from paceStart at which the tweet may be emitted.
+    private long dueNanos(Status tweet) {
+        long due = 0;
+        if (rate > 0) {
+            due = (long) (paced * 1e9 / rate);
+        }
+        if (timeCompression > 0) {
+            Date created = tweet.getCreatedAt();
+            if (created != null) {
+                if (firstCreated < 0) {
+                    firstCreated = created.getTime();
+                }
+                due = Math.max(due, (long) ((created.getTime() - firstCreated) * 1e6 / timeCompression));
+            }
+        }
+        return due;
+    }
+
+    private static Status parse(String line) {
+        if (line.length() == 0 || line.charAt(0) != '{') {
+            return null;
+        }
+        try {
+            Status tweet = DataObjectFactory.createStatus(line);
+            return tweet != null && tweet.getText() != null ? tweet : null;
+        } catch (TwitterException e) {
+            return null;
+        } catch (RuntimeException e) {                                  // malformed JSON surfaces as unchecked exceptions too
+            return null;
+        }
+    }
+
+    // The next line of the current file, moving on to the next file (and,
+    // when looping, back to the first one) at the end; null when done.
+    private String nextLine() {
+        try {
+            while (true) {
+                if (reader == null) {
+                    if (nextFile == files.size()) {
+                        if (!loop) {
+                            return null;
+                        }
+                        startPass();
+                    }
+                    reader = open(files.get(nextFile++));
+                }
+                String line = reader.readLine();
+                if (line != null) {
+                    return line.trim();
+                }
+                closeReader();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read tweets from " + files.get(nextFile - 1), e);
+        }
+    }
+
+    private void startPass() {
+        nextFile = 0;
+        paceStart = System.nanoTime();
+        paced = 0;
+        firstCreated = -1;
+    }
+
+    private static BufferedReader open(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(in, "UTF-8"), 1 << 16);
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing was written, nothing to lose
+            }
+            reader = null;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Batch {
+        final List<Status> tweets;
+        final long emittedAt = System.nanoTime();
+
+        Batch(List<Status> tweets) {
+            this.tweets = tweets;
+        }
+    }
+
+    /**
+     * Counters of a ReplaySpout, shared by name within the JVM.
+     */
+    public static final class Stats {
+        private static final ConcurrentHashMap<String, Stats> BY_NAME = new ConcurrentHashMap<String, Stats>();
+        private static final int LATENCIES = 4096;                      // most recent batch latencies kept
+
+        public final AtomicLong emitted = new AtomicLong();
+        public final AtomicLong committed = new AtomicLong();
+        public final AtomicLong committedBatches = new AtomicLong();
+        public final AtomicLong skipped = new AtomicLong();
+        private final long[] latencies = new long[LATENCIES];
+        private volatile boolean stopped;
+
+        public static Stats get(String name) {
+            Stats stats = BY_NAME.get(name);
+            if (stats == null) {
+                Stats created = new Stats();
+                stats = BY_NAME.putIfAbsent(name, created);
+                if (stats == null) {
+                    stats = created;
+                }
+            }
+            return stats;
+        }
+
+        synchronized void committed(int tweets, long latencyNanos) {
+            latencies[(int) (committedBatches.getAndIncrement() % LATENCIES)] = latencyNanos;
+            committed.addAndGet(tweets);
+        }
+
+        /**
+         * Emit-to-commit latency of the recent batches, in milliseconds, at
+         * the given quantile (0.5 for the median, 0.99, ...).
+         */
+        public synchronized double latencyMillis(double quantile) {
+            int n = (int) Math.min(committedBatches.get(), LATENCIES);
+            if (n == 0) {
+                return Double.NaN;
+            }
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            return sorted[Math.min(n - 1, (int) (quantile * n))] / 1e6;
+        }
+
+        /**
+         * Makes the spouts of this name emit only empty batches from now on,
+         * so their topology can be killed without a batch half-emitted.
+         */
+        public void stop() {
+            stopped = true;
+        }
+
+        public synchronized void reset() {
+            emitted.set(0);
+            committed.set(0);
+            committedBatches.set(0);
+            skipped.set(0);
+            Arrays.fill(latencies, 0);
+        }
+    }
+}
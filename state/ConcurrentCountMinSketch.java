@@ -0,0 +1,281 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min sketch with Top-K tracking that many threads can feed at once,
+ * for use outside of a Trident topology. CountMinSketchState remains the
+ * single-threaded version used by the Trident state.
+ *
+ * Three strategies are available:
+ * <ul>
+ * <li>ATOMIC: one shared table of atomic counters. Every add is depth
+ * atomic increments; estimates and Top-K reads are as cheap as in the
+ * single-threaded sketch.</li>
+ * <li>STRIPED: a fixed number of sub-sketches, each guarded by its own lock.
+ * A thread always writes to the same stripe; reads merge all stripes.</li>
+ * <li>PER_THREAD: every writing thread gets a private sub-sketch, so writes
+ * never contend; reads fold all of them.</li>
+ * </ul>
+ * Buckets are the same as in CountMinSketchState (MurmurHash.hashChars64,
+ * bucket i = h1 + i * h2), so estimates match a single-threaded sketch fed
+ * with the same words.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class ConcurrentCountMinSketch {
+
+    public enum Strategy { ATOMIC, STRIPED, PER_THREAD }
+
+    // counters of different threads are kept this many slots apart so they do not share a cache line
+    private static final int PAD = 8;
+
+    final Strategy strategy;
+    final int depth;
+    final int width;
+    final int mask;
+    final int stride;
+    final int k;
+
+    // ATOMIC
+    private final AtomicLongArray cells;
+    private final AtomicLongArray sizes;                             // striped total count, one padded slot per stripe
+    private final int sizeStripes;
+    private final ConcurrentTopK topk;
+
+    // STRIPED and PER_THREAD
+    private final List<Shard> shards;
+    private final Shard[] stripes;
+    private final ThreadLocal<Shard> ownShard;
+
+    public ConcurrentCountMinSketch(int depth, int width, int k, Strategy strategy) {
+        this(depth, width, k, strategy, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes number of sub-sketches for STRIPED (rounded up to a power of two),
+     *                and number of size counters for ATOMIC
+     */
+    public ConcurrentCountMinSketch(int depth, int width, int k, Strategy strategy, int stripes) {
+        this.strategy = strategy;
+        this.depth = depth;
+        this.width = CountMinSketchState.roundUpToPowerOfTwo(width);
+        this.mask = this.width - 1;
+        this.stride = CountMinSketchState.strideFor(this.width);
+        this.k = k;
+        int n = CountMinSketchState.roundUpToPowerOfTwo(Math.max(stripes, 1));
+
+        switch (strategy) {
+            case ATOMIC:
+                this.cells = new AtomicLongArray(depth * stride);
+                this.sizeStripes = n;
+                this.sizes = new AtomicLongArray(n * PAD);
+                this.topk = new ConcurrentTopK(k);
+                this.shards = null;
+                this.stripes = null;
+                this.ownShard = null;
+                break;
+            case STRIPED:
+                this.cells = null;
+                this.sizeStripes = 0;
+                this.sizes = null;
+                this.topk = null;
+                this.stripes = new Shard[n];
+                for (int i = 0; i < n; i++) {
+                    this.stripes[i] = newShard();
+                }
+                this.shards = Collections.unmodifiableList(Arrays.asList(this.stripes));
+                this.ownShard = null;
+                break;
+            default:
+                this.cells = null;
+                this.sizeStripes = 0;
+                this.sizes = null;
+                this.topk = null;
+                this.stripes = null;
+                this.shards = new CopyOnWriteArrayList<Shard>();
+                this.ownShard = new ThreadLocal<Shard>() {
+                    @Override
+                    protected Shard initialValue() {
+                        Shard shard = newShard();
+                        shards.add(shard);
+                        return shard;
+                    }
+                };
+        }
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public double getRelativeError() {
+        return 2.0 / width;
+    }
+
+    public void add(String item, long count) {
+        add(item, MurmurHash.hashChars64(item), count);
+    }
+
+    public void add(String item, long hash, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative increments not implemented");
+        }
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        if (strategy == Strategy.ATOMIC) {
+            long estimate = Long.MAX_VALUE;
+            for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+                estimate = Math.min(estimate, cells.addAndGet(row + ((h1 + i * h2) & mask), count));
+            }
+            sizes.addAndGet(stripeIndex(sizeStripes) * PAD, count);
+            topk.offer(item, hash, estimate);
+        } else {
+            Shard shard = strategy == Strategy.STRIPED ? stripes[stripeIndex(stripes.length)] : ownShard.get();
+            synchronized (shard) {                                       // uncontended for PER_THREAD, only readers compete for it
+                long[] table = shard.table;
+                long estimate = Long.MAX_VALUE;
+                for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+                    estimate = Math.min(estimate, table[row + ((h1 + i * h2) & mask)] += count);
+                }
+                shard.size += count;
+                shard.topk.offer(item, hash, estimate);                  // shard-local count; candidates are re-estimated on read
+            }
+        }
+    }
+
+    public long estimateCount(String item) {
+        return estimateCount(item, MurmurHash.hashChars64(item));
+    }
+
+    public long estimateCount(String item, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        if (strategy == Strategy.ATOMIC) {
+            long res = Long.MAX_VALUE;
+            for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+                res = Math.min(res, cells.get(row + ((h1 + i * h2) & mask)));
+            }
+            return res;
+        }
+        long[] rowSums = new long[depth];
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+                    rowSums[i] += shard.table[row + ((h1 + i * h2) & mask)];
+                }
+            }
+        }
+        long res = Long.MAX_VALUE;
+        for (int i = 0; i < depth; ++i) {
+            res = Math.min(res, rowSums[i]);
+        }
+        return res;
+    }
+
+    public long size() {
+        long size = 0;
+        if (strategy == Strategy.ATOMIC) {
+            for (int i = 0; i < sizeStripes; i++) {
+                size += sizes.get(i * PAD);
+            }
+            return size;
+        }
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The Top-K words, sorted by descending count. For STRIPED and PER_THREAD
+     * the candidates of all sub-sketches are re-estimated against the merged
+     * counts before the k largest are picked.
+     */
+    public List<WordCount> topK() {
+        List<WordCount> result;
+        if (strategy == Strategy.ATOMIC) {
+            result = topk.snapshot();
+        } else {
+            Map<String, Boolean> candidates = new HashMap<String, Boolean>();
+            for (Shard shard : shards) {
+                synchronized (shard) {
+                    for (int i = 0; i < shard.topk.size(); i++) {
+                        candidates.put(shard.topk.key(i), Boolean.TRUE);
+                    }
+                }
+            }
+            result = new ArrayList<WordCount>(candidates.size());
+            for (String word : candidates.keySet()) {
+                result.add(new WordCount(word, estimateCount(word)));
+            }
+        }
+        Collections.sort(result, TopKCombiner.BY_COUNT_DESC);
+        return result.size() > k ? new ArrayList<WordCount>(result.subList(0, k)) : result;
+    }
+
+    private Shard newShard() {
+        // each shard keeps a wider candidate list, as a word's count is split over the shards
+        return new Shard(new long[depth * stride], new TopKTracker(2 * k));
+    }
+
+    private static int stripeIndex(int n) {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & (n - 1);
+    }
+
+    private static final class Shard {
+        final long[] table;
+        final TopKTracker topk;
+        long size;
+
+        Shard(long[] table, TopKTracker topk) {
+            this.table = table;
+            this.topk = topk;
+        }
+    }
+
+    /**
+     * TopKTracker shared by all threads. A word whose count does not beat the
+     * current minimum can neither enter the list nor raise its own entry, so
+     * such offers are dropped against a volatile copy of the minimum without
+     * taking the lock. Only the (rare) candidates lock.
+     */
+    private static final class ConcurrentTopK {
+        private final TopKTracker tracker;
+        private volatile long threshold;
+
+        ConcurrentTopK(int k) {
+            tracker = new TopKTracker(k);
+        }
+
+        void offer(String key, long hash, long count) {
+            if (count <= threshold) {
+                return;
+            }
+            synchronized (tracker) {
+                tracker.offer(key, hash, count);
+                threshold = tracker.minCount();
+            }
+        }
+
+        List<WordCount> snapshot() {
+            synchronized (tracker) {
+                List<WordCount> result = new ArrayList<WordCount>(tracker.size());
+                for (int i = 0; i < tracker.size(); i++) {
+                    result.add(new WordCount(tracker.key(i), tracker.count(i)));
+                }
+                return result;
+            }
+        }
+    }
+}
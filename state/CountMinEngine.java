@@ -0,0 +1,121 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A CountMinSketchState with its Top-K list, behind the HeavyHitterEngine
+ * interface, so it can be compared and swapped with the other engines.
+ *
+ * The topology does not go through it: CountMinSketchStateFactory builds
+ * CountMinSketchStates directly, with their windows, storage and folding.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class CountMinEngine implements HeavyHitterEngine {
+
+    private CountMinSketchState sketch;
+
+    public CountMinEngine(int depth, int width, int seed, int k) {
+        this(new CountMinSketchState(depth, width, seed, k));
+    }
+
+    public CountMinEngine(CountMinSketchState sketch) {
+        if (sketch.topk == null) {
+            throw new IllegalArgumentException("The sketch does not track a Top-K list");
+        }
+        this.sketch = sketch;
+    }
+
+    public Type type() {
+        return Type.COUNT_MIN;
+    }
+
+    public CountMinSketchState getSketch() {
+        return sketch;
+    }
+
+    public void add(String item, long hash, long count) {
+        sketch.add(item, hash, count);
+    }
+
+    public void addAll(String[] items, long[] hashes, long[] counts, int n) {
+        sketch.addAll(items, hashes, counts, n);
+    }
+
+    public long estimateCount(String item, long hash) {
+        return sketch.estimateCount(item, hash);
+    }
+
+    public List<WordCount> topK() {
+        return sketch.topK();
+    }
+
+    public long size() {
+        return sketch.size();
+    }
+
+    /** eps * size, see CountMinSketchState.errorBound. */
+    public long errorBound() {
+        return sketch.errorBound();
+    }
+
+    public boolean canMerge(HeavyHitterEngine other) {
+        if (!(other instanceof CountMinEngine)) {
+            return false;
+        }
+        CountMinSketchState that = ((CountMinEngine) other).sketch;
+        return that.depth == sketch.depth && that.width == sketch.width && Arrays.equals(that.hashA, sketch.hashA);
+    }
+
+    /**
+     * Adds the counters, see CountMinSketchState.merge. The Top-K lists of
+     * both are re-ranked with the merged estimates.
+     */
+    public void merge(HeavyHitterEngine other) {
+        if (!canMerge(other)) {
+            throw new IllegalArgumentException("Cannot merge " + other.type() + " into a CountMin engine of "
+                                               + sketch.depth + " x " + sketch.width);
+        }
+        CountMinSketchState that = ((CountMinEngine) other).sketch;
+        CountMinSketchState merged = CountMinSketchState.merge(sketch, that);
+        merged.k = sketch.k;
+        merged.topk = new TopKTracker(sketch.k);
+        reoffer(merged, sketch.topK());
+        reoffer(merged, that.topK());
+        sketch = merged;
+    }
+
+    private static void reoffer(CountMinSketchState sketch, List<WordCount> words) {
+        for (WordCount w : words) {
+            long hash = MurmurHash.hashChars64(w.word);
+            sketch.topk.offer(w.word, hash, sketch.estimateCount(w.word, hash));
+        }
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        new CountMinSketchSerializer(false).serialize(sketch, out);
+    }
+
+    static CountMinEngine readFrom(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Corrupt CountMin engine length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        CountMinSketchState sketch = CountMinSketchSerializer.decode(ByteBuffer.wrap(bytes));
+        if (sketch.topk == null) {
+            throw new IOException("CountMin engine saved without its Top-K list");
+        }
+        return new CountMinEngine(sketch);
+    }
+
+    public long sizeInBytes() {
+        return sketch.getTableBytes() + sketch.topk.sizeInBytes();
+    }
+}
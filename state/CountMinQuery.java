@@ -4,26 +4,84 @@ package storm.starter.trident.project.countmin.state;
 import storm.trident.state.BaseQueryFunction;
 import storm.trident.tuple.TridentTuple;
 import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
 import backtype.storm.tuple.Values;
 
 
 /**
+ * Estimated counts of the words of a batch of queries.
+ *
+ * All words missing from the cache are hashed first and then estimated in
+ * one estimateCounts call. Results are cached until the state's version
+ * changes (at its next beginCommit or commit, or when a sliding window
+ * drops an interval), so hot terms that many queries repeat are served
+ * without touching the table.
+ *
  *@author: Preetham MS (pmahish@ncsu.edu)
  */
 
 
-public class CountMinQuery extends BaseQueryFunction<CountMinSketchState, String> {
-    public List<String> batchRetrieve(CountMinSketchState state, List<TridentTuple> inputs) {
-        List<String> ret = new ArrayList();
-        for(TridentTuple input: inputs) {
-            ret.add(String.valueOf(state.estimateCount(input.getString(0))));
+public class CountMinQuery extends BaseQueryFunction<TopKState, Long> {
+
+    static final int MAX_CACHED = 10000;                            // words cached per state version
+
+    private transient Map<String, Long> cache;
+    private transient long cachedVersion;
+
+    @Override
+    public void prepare(Map conf, TridentOperationContext context) {
+        cache = new HashMap<String, Long>();
+        cachedVersion = -1;
+    }
+
+    public List<Long> batchRetrieve(TopKState state, List<TridentTuple> inputs) {
+        long version = state.version();
+        if (version != cachedVersion) {
+            cache.clear();                                          // counts may have changed
+            cachedVersion = version;
+        }
+
+        int n = inputs.size();
+        Long[] ret = new Long[n];
+        String[] words = new String[n];
+        long[] hashes = new long[n];
+        int[] positions = new int[n];
+        int misses = 0;
+        for (int i = 0; i < n; i++) {
+            String word = inputs.get(i).getString(0);
+            Long count = cache.get(word);
+            if (count != null) {
+                ret[i] = count;
+            } else {
+                words[misses] = word;
+                hashes[misses] = MurmurHash.hashChars64(word);
+                positions[misses++] = i;
+            }
+        }
+
+        if (misses > 0) {
+            long[] counts = new long[misses];
+            state.estimateCounts(words, hashes, misses, counts);
+            for (int j = 0; j < misses; j++) {
+                ret[positions[j]] = counts[j];
+                if (cache.size() < MAX_CACHED) {
+                    cache.put(words[j], counts[j]);
+                }
+            }
+        }
+
+        List<Long> result = new ArrayList<Long>(n);
+        for (Long count : ret) {
+            result.add(count);
         }
-        return ret;
+        return result;
     }
 
-    public void execute(TridentTuple tuple, String count, TridentCollector collector) {
+    public void execute(TridentTuple tuple, Long count, TridentCollector collector) {
         collector.emit(new Values(count));
     }    
 }
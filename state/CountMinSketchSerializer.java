@@ -0,0 +1,364 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Compact, versioned binary format for CountMinSketchState.
+ *
+ * <pre>
+ * magic    4 bytes  "CMSK"
+ * version  1 byte
+ * flags    1 byte   FLAG_CHECKSUM, FLAG_TOPK, FLAG_INT_COUNTERS, FLAG_TIERED_COUNTERS
+ * depth    varint
+ * width    varint
+ * size     varlong
+ * seeds    depth x 8 bytes
+ * counters per row: a non-zero counter is written as its varlong, a run of
+ *          zero counters as a 0 byte followed by the varint run length
+ * [topk]   varint k, varint n, n x (varint UTF-8 length, bytes, varlong count)
+ * [crc]    4 bytes  CRC32 of everything before it
+ * </pre>
+ *
+ * decode checks the CRC first and rejects anything malformed with an
+ * IOException, so a corrupt snapshot is never half-applied.
+ *
+ * Most counters of a sketch are small or zero, so they take one or two
+ * bytes instead of eight. Encoding writes into a buffer sized from the
+ * sketch's previous encoding (one byte per counter the first time) that
+ * grows as needed, instead of one sized for the worst case; decoding works
+ * directly on a ByteBuffer. The counter flags only
+ * record the counter width to restore; the counters are written the same
+ * way for every width.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class CountMinSketchSerializer implements ICompactSerializer<CountMinSketchState> {
+
+    static final int MAGIC = 0x434d534b;                                 // "CMSK"
+    static final byte VERSION = 1;
+
+    static final int FLAG_CHECKSUM = 1;
+    static final int FLAG_TOPK = 2;
+    static final int FLAG_INT_COUNTERS = 4;
+    static final int FLAG_TIERED_COUNTERS = 8;
+
+    // limits on what decode accepts, far above any sketch the topology makes
+    static final int MAX_DEPTH = 64;
+    static final int MAX_WIDTH = 1 << 30;
+    static final int MAX_K = 1 << 20;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final boolean checksum;
+
+    public CountMinSketchSerializer() {
+        this(true);
+    }
+
+    public CountMinSketchSerializer(boolean checksum) {
+        this.checksum = checksum;
+    }
+
+    public void serialize(CountMinSketchState sketch, DataOutputStream dos) throws IOException {
+        Output out = encode(sketch, checksum);
+        dos.writeInt(out.length);
+        dos.write(out.bytes, 0, out.length);
+    }
+
+    public CountMinSketchState deserialize(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt CountMin sketch length " + length);
+        }
+        byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    public static byte[] toBytes(CountMinSketchState sketch, boolean checksum) {
+        Output out = encode(sketch, checksum);
+        return out.length == out.bytes.length ? out.bytes : Arrays.copyOf(out.bytes, out.length);
+    }
+
+    /** Whether data starts like an encoded sketch (as opposed to the old fixed-width layout). */
+    public static boolean isEncoded(byte[] data) {
+        return data.length >= 4 && ByteBuffer.wrap(data).getInt(0) == MAGIC;
+    }
+
+    private static Output encode(CountMinSketchState sketch, boolean checksum) {
+        sketch.checkpointHotKeys();                                     // the cells must hold the hot words' counts too
+        long expected = sketch.encodedLength > 0
+                        ? sketch.encodedLength + (sketch.encodedLength >> 3)    // counts only grow between snapshots
+                        : 64 + 9L * sketch.depth + (long) sketch.depth * sketch.width;
+        Output out = new Output(expected);
+        out.putInt(MAGIC);
+        out.put(VERSION);
+        CounterTable table = sketch.table;
+        out.put((byte) ((checksum ? FLAG_CHECKSUM : 0) | (sketch.topk != null ? FLAG_TOPK : 0) | counterFlag(table.kind())));
+        out.putVarLong(sketch.depth);
+        out.putVarLong(sketch.width);
+        out.putVarLong(sketch.size);
+        for (int i = 0; i < sketch.depth; ++i) {
+            out.putLong(sketch.hashA[i]);
+        }
+        for (int i = 0, row = 0; i < sketch.depth; ++i, row += sketch.stride) {
+            int end = row + sketch.width;
+            for (int j = row; j < end; ) {
+                long v = table.get(j);
+                if (v != 0) {
+                    out.putVarLong(v);
+                    j++;
+                } else {
+                    int run = 1;
+                    while (j + run < end && table.get(j + run) == 0) {
+                        run++;
+                    }
+                    out.put((byte) 0);
+                    out.putVarLong(run);
+                    j += run;
+                }
+            }
+        }
+        if (sketch.topk != null) {
+            out.putVarLong(sketch.k);
+            out.putVarLong(sketch.topk.size());
+            for (int i = 0; i < sketch.topk.size(); i++) {
+                byte[] word = sketch.topk.key(i).getBytes(UTF8);
+                out.putVarLong(word.length);
+                out.put(word);
+                out.putVarLong(sketch.topk.count(i));
+            }
+        }
+        if (checksum) {
+            CRC32 crc = new CRC32();
+            crc.update(out.bytes, 0, out.length);
+            out.putInt((int) crc.getValue());
+        }
+        sketch.encodedLength = out.length;
+        return out;
+    }
+
+    /**
+     * Reads a sketch from the buffer's position up to its limit: with a
+     * checksum, the checksum ends the buffer and is verified over the whole
+     * payload before anything is decoded or allocated. Every dimension and
+     * length is checked against the bytes present and sane limits.
+     *
+     * @throws IOException if the data is not an encoded sketch, is of an
+     *                     unknown version, is truncated, fails its checksum
+     *                     or is malformed in any other way
+     */
+    public static CountMinSketchState decode(ByteBuffer in) throws IOException {
+        int start = in.position();
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not an encoded CountMin sketch");
+            }
+            byte version = in.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported CountMin sketch version " + version);
+            }
+            int flags = in.get();
+            if ((flags & ~(FLAG_CHECKSUM | FLAG_TOPK | FLAG_INT_COUNTERS | FLAG_TIERED_COUNTERS)) != 0) {
+                throw new IOException("Unknown CountMin sketch flags " + flags);
+            }
+            int end = in.limit();
+            if ((flags & FLAG_CHECKSUM) != 0) {
+                end -= 4;
+                if (end < in.position()) {
+                    throw new IOException("Truncated CountMin sketch");
+                }
+                if (in.getInt(end) != (int) crc(in, start, end)) {
+                    throw new IOException("CountMin sketch checksum mismatch");
+                }
+            }
+
+            CountMinSketchState sketch = new CountMinSketchState();
+            int depth = getVarInt(in, MAX_DEPTH, "depth");
+            int width = getVarInt(in, MAX_WIDTH, "width");
+            if (depth < 1 || width < 1 || Integer.bitCount(width) != 1
+                || (long) depth * CountMinSketchState.strideFor(width) > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt CountMin sketch of " + depth + " x " + width);
+            }
+            if ((long) depth * 8 > end - in.position()) {
+                throw new IOException("Truncated CountMin sketch");
+            }
+            sketch.initShape(depth, width, counterKind(flags));
+            sketch.size = getVarLong(in);
+            if (sketch.size < 0) {
+                throw new IOException("Corrupt CountMin sketch size " + sketch.size);
+            }
+            for (int i = 0; i < depth; ++i) {
+                sketch.hashA[i] = in.getLong();
+            }
+            for (int i = 0, row = 0; i < depth; ++i, row += sketch.stride) {
+                int rowEnd = row + width;
+                for (int j = row; j < rowEnd; ) {
+                    long v = getVarLong(in);
+                    if (v > 0) {
+                        sketch.setCell(j++, v);
+                    } else if (v == 0) {
+                        long run = getVarLong(in);
+                        if (run < 1 || run > rowEnd - j) {
+                            throw new IOException("Corrupt zero run of " + run + " counters");
+                        }
+                        j += (int) run;                                  // the table is already zeroed
+                    } else {
+                        throw new IOException("Corrupt counter " + v);
+                    }
+                }
+            }
+            if ((flags & FLAG_TOPK) != 0) {
+                sketch.k = getVarInt(in, MAX_K, "k");
+                int tracked = getVarInt(in, sketch.k, "Top-K list length");
+                if (sketch.k > 0) {
+                    sketch.topk = new TopKTracker(sketch.k);
+                }
+                for (int i = 0; i < tracked; i++) {
+                    byte[] bytes = new byte[getVarInt(in, end - in.position(), "word length")];
+                    in.get(bytes);
+                    String word = new String(bytes, UTF8);
+                    long count = getVarLong(in);
+                    if (count < 0) {
+                        throw new IOException("Corrupt Top-K count " + count);
+                    }
+                    sketch.topk.offer(word, MurmurHash.hashChars64(word), count);
+                }
+            }
+            if (in.position() != end) {
+                throw new IOException("CountMin sketch has " + (end - in.position()) + " bytes past its end");
+            }
+            if ((flags & FLAG_CHECKSUM) != 0) {
+                in.position(end + 4);
+            }
+            return sketch;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated CountMin sketch");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt CountMin sketch", e);
+        }
+    }
+
+    private static int counterFlag(CounterTable.Kind kind) {
+        switch (kind) {
+            case INT:
+                return FLAG_INT_COUNTERS;
+            case TIERED:
+                return FLAG_TIERED_COUNTERS;
+            default:
+                return 0;
+        }
+    }
+
+    private static CounterTable.Kind counterKind(int flags) {
+        if ((flags & FLAG_TIERED_COUNTERS) != 0) {
+            return CounterTable.Kind.TIERED;
+        }
+        return (flags & FLAG_INT_COUNTERS) != 0 ? CounterTable.Kind.INT : CounterTable.Kind.LONG;
+    }
+
+    // a varint that must lie in [0, max]
+    static int getVarInt(ByteBuffer in, int max, String what) throws IOException {
+        long v = getVarLong(in);
+        if (v < 0 || v > max) {
+            throw new IOException("Corrupt CountMin sketch " + what + " " + v);
+        }
+        return (int) v;
+    }
+
+    static long getVarLong(ByteBuffer in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    // the encoding so far: bytes[0, length), bytes growing by half when full
+    private static final class Output {
+        private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;    // largest array every VM allocates
+
+        byte[] bytes;
+        int length;
+
+        Output(long expected) {
+            bytes = new byte[(int) Math.min(expected, MAX_LENGTH)];
+        }
+
+        private void ensure(int n) {
+            if (n > bytes.length - length) {
+                long needed = (long) length + n;
+                if (needed > MAX_LENGTH) {
+                    throw new IllegalArgumentException("Sketch too large to encode: over " + MAX_LENGTH + " bytes");
+                }
+                bytes = Arrays.copyOf(bytes, (int) Math.min(MAX_LENGTH, Math.max(needed, bytes.length + (bytes.length >> 1))));
+            }
+        }
+
+        void put(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+        }
+
+        void put(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, length, b.length);
+            length += b.length;
+        }
+
+        void putInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[length++] = (byte) (v >>> shift);             // big-endian, as ByteBuffer reads it
+            }
+        }
+
+        void putLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[length++] = (byte) (v >>> shift);
+            }
+        }
+
+        void putVarLong(long v) {
+            if ((v & ~0x7FL) == 0 && length < bytes.length) {
+                bytes[length++] = (byte) v;                             // most counters and run lengths
+                return;
+            }
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[length++] = (byte) v;
+        }
+    }
+
+    private static long crc(ByteBuffer buffer, int from, int to) {
+        CRC32 crc = new CRC32();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + from, to - from);
+        } else {
+            ByteBuffer view = buffer.duplicate();
+            view.limit(to).position(from);
+            byte[] chunk = new byte[Math.min(8192, to - from)];
+            while (view.hasRemaining()) {
+                int n = Math.min(chunk.length, view.remaining());
+                view.get(chunk, 0, n);
+                crc.update(chunk, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+}
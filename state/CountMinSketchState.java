@@ -15,19 +15,23 @@
 package storm.starter.trident.project.countmin.state;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.ByteBuffer;
 
 import java.util.Arrays;
 import java.util.Random;
-import java.util.Comparator;
-import java.util.PriorityQueue;
-import java.util.Comparator;
 import java.util.List;
 import java.util.ArrayList;
 
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.IMetricsContext;
 import storm.trident.state.State;
 import storm.trident.state.StateFactory;
 import storm.trident.state.StateType;
@@ -42,33 +46,109 @@ import storm.trident.state.StateType;
  * Modified by Preetham MS. Originally by https://github.com/addthis/stream-lib/
  * @author: Preetham MS (pmahish@ncsu.edu)
  */
-public class CountMinSketchState implements State {
+public class CountMinSketchState implements TopKState {
 
     public static final long PRIME_MODULUS = (1L << 31) - 1;
 
+    // Rows are laid out back to back in one flat array. Each row is padded by
+    // one cache line so that row starts do not share the same cache set when
+    // width is a power of two (which would make a word's depth probes evict
+    // each other).
+    static final int ROW_PADDING = 8;
+
     int depth;
-    int width;
-    long[][] table;
+    int width;                                                                      // always a power of two
+    int mask;                                                                       // width - 1, replaces "% width"
+    int stride;                                                                     // distance between row starts in table
+    CounterTable table;                                                             // row i is cells [i * stride, i * stride + width)
     long[] hashA;
     long size;
     double eps;
     double confidence;
     
     int k;
-    PriorityQueue<String> priorityqueue;
-    Comparator<String> comparator = new StringComparator();
+    TopKTracker topk;                                                               // null when the sketch does not track a Top-K list
+
+    SketchSnapshotStore snapshots;                                                  // null unless snapshots are enabled
+    int snapshotEvery;
+    int commitsSinceSnapshot;
+    SketchMetrics.Histogram serializeTime;                                          // null unless metrics are registered
+    int encodedLength;                                                              // length of the last encoding, sizes the next one
+
+    int minWidth;                                                                   // folding floor, 0 unless folding is enabled
+    long maxTableBytes;                                                             // fold while the counters take more, 0 for no limit
+    double maxHeapFraction;                                                         // fold when the old generation is fuller after GC, 0 to ignore
+    long gcsAtFold = -1;                                                            // collections seen at the last heap-pressure fold
+    int folds;
+
+    private volatile TopKSnapshot published = TopKSnapshot.EMPTY;                   // Top-K as of the last commit
+    private long version;                                                           // see TopKState.version
+
+    private boolean conservative;                                                   // raise cells only up to the new estimate
+    private int[] probes;                                                           // conservative update scratch: cells of the word
+    private long[] probed;                                                          // and their counts
+
+    private HotKeyTier hotKeys;                                                     // null unless the hot-key tier is enabled
        
     CountMinSketchState() {
     }
 
     public CountMinSketchState(int depth, int width, int seed,int k) {
+        this(depth, width, seed, k, CounterTable.Kind.LONG);
+    }
+
+    /**
+     * @param counters width of the counters; INT and TIERED cells take 4 and
+     *                 2 bytes instead of 8, so the same memory holds a wider
+     *                 sketch
+     */
+    public CountMinSketchState(int depth, int width, int seed, int k, CounterTable.Kind counters) {
+        initDimensions(depth, width, seed, k);
+        this.table = CounterTable.create(counters, depth * stride);
+    }
+
+    /**
+     * A sketch whose counters are kept outside the Java heap, see
+     * OffHeapCounterTable.
+     */
+    public static CountMinSketchState offHeap(int depth, int width, int seed, int k) {
+        CountMinSketchState sketch = new CountMinSketchState();
+        sketch.initDimensions(depth, width, seed, k);
+        sketch.table = OffHeapCounterTable.allocate(depth * sketch.stride);
+        return sketch;
+    }
+
+    /**
+     * A sketch whose counters live in the given memory-mapped file, see
+     * MappedCounterTable. If the file holds a sketch of the same shape, seed
+     * and number of partitions, its counts, total and Top-K list (as of the
+     * last sync) are picked up where they were left.
+     *
+     * @param syncEvery force the counters to disk every this many commits
+     */
+    public static CountMinSketchState mapped(File file, int depth, int width, int seed, int k,
+                                             int partitions, int syncEvery) throws IOException {
+        CountMinSketchState sketch = new CountMinSketchState();
+        sketch.initDimensions(depth, width, seed, k);
+        MappedCounterTable table = MappedCounterTable.open(file, depth, sketch.width, sketch.stride, sketch.hashA, partitions, syncEvery);
+        sketch.table = table;
+        sketch.size = table.getSize();
+        for (WordCount w : table.loadTopK()) {
+            sketch.topk.offer(w.word, MurmurHash.hashChars64(w.word), w.count);
+        }
+        return sketch;
+    }
+
+    private void initDimensions(int depth, int width, int seed, int k) {
         this.depth = depth;
-        this.width = width;
-        this.eps = 2.0 / width;
+        this.width = roundUpToPowerOfTwo(width);                                    // widths are rounded up so buckets can be masked
+        this.eps = 2.0 / this.width;
         this.confidence = 1 - 1 / Math.pow(2, depth);
-        initTablesWith(depth, width, seed);
+        this.mask = this.width - 1;
+        this.stride = strideFor(this.width);
+        initHashes(depth, seed);
         this.k = k;                                                                 // initialize k (for Top-K)
-        priorityqueue = new PriorityQueue<String>(k,comparator);                    // initialize the priorityqueue with k and a comparator
+        topk = new TopKTracker(k);                                                  // initialize the Top-K tracker with k
     }
 
     public CountMinSketchState(double epsOfTotalCount, double confidence, int seed) {
@@ -76,23 +156,90 @@ public class CountMinSketchState implements State {
         // 1/2^depth <= 1-confidence ; depth >= -log2 (1-confidence)
         this.eps = epsOfTotalCount;
         this.confidence = confidence;
-        this.width = (int) Math.ceil(2 / epsOfTotalCount);
-        this.depth = (int) Math.ceil(-Math.log(1 - confidence) / Math.log(2));
-        initTablesWith(depth, width, seed);
+        this.width = widthFor(epsOfTotalCount);
+        this.depth = depthFor(confidence);
+        initTablesWith(depth, width, seed, CounterTable.Kind.LONG);
     }
 
-    public CountMinSketchState(int depth, int width, int size, long[] hashA, long[][] table) {
+    /** Smallest (power of two) width whose error bound is at most eps * size. */
+    public static int widthFor(double eps) {
+        if (eps <= 0 || eps >= 1) {
+            throw new IllegalArgumentException("eps must be in (0, 1): " + eps);
+        }
+        return roundUpToPowerOfTwo((int) Math.ceil(2 / eps));
+    }
+
+    /** Smallest depth whose estimates are within the error bound with this confidence. */
+    public static int depthFor(double confidence) {
+        if (confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("Confidence must be in (0, 1): " + confidence);
+        }
+        return Math.max(1, (int) Math.ceil(-Math.log(1 - confidence) / Math.log(2)));
+    }
+
+    public CountMinSketchState(int depth, int width, int size, long[] hashA, long[] table) {
+        checkWidth(width);
         this.depth = depth;
         this.width = width;
+        this.mask = width - 1;
+        this.stride = strideFor(width);
         this.eps = 2.0 / width;
         this.confidence = 1 - 1 / Math.pow(2, depth);
         this.hashA = hashA;
+        this.table = CounterTable.wrap(table);
+        this.size = size;
+    }
+
+    /**
+     * A sketch over counters given one row per array, each of width cells
+     * (the table layout before it was flattened).
+     */
+    public CountMinSketchState(int depth, int width, int size, long[] hashA, long[][] table) {
+        this(depth, width, size, hashA, flatten(depth, width, table));
+    }
+
+    // copies rows of width cells into one flat table of the padded row stride
+    private static long[] flatten(int depth, int width, long[][] rows) {
+        checkWidth(width);
+        int stride = strideFor(width);
+        long[] flat = new long[depth * stride];
+        for (int i = 0; i < depth; ++i) {
+            System.arraycopy(rows[i], 0, flat, i * stride, width);
+        }
+        return flat;
+    }
+
+    CountMinSketchState(int depth, int width, long size, long[] hashA, CounterTable table) {
+        this(depth, width, 0, hashA, (long[]) null);
         this.table = table;
         this.size = size;
     }
 
-    private void initTablesWith(int depth, int width, int seed) {
-        this.table = new long[depth][width];
+    static int roundUpToPowerOfTwo(int n) {
+        if (n < 1 || n > (1 << 30)) {
+            throw new IllegalArgumentException("Width must be between 1 and 2^30: " + n);
+        }
+        return n == 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    static void checkWidth(int width) {
+        if (width < 1 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("Width must be a power of two: " + width);
+        }
+    }
+
+    static int strideFor(int width) {
+        return width + ROW_PADDING;
+    }
+
+    private void initTablesWith(int depth, int width, int seed, CounterTable.Kind counters) {
+        this.mask = width - 1;
+        this.stride = strideFor(width);
+        this.table = CounterTable.create(counters, depth * stride);
+        initHashes(depth, seed);
+    }
+
+    private void initHashes(int depth, int seed) {
         this.hashA = new long[depth];
         Random r = new Random(seed);
         // We're using a linear hash functions
@@ -121,8 +268,9 @@ public class CountMinSketchState implements State {
         // page 149, right after Proposition 7.
         hash += hash >> 32;
         hash &= PRIME_MODULUS;
-        // Doing "%" after (int) conversion is ~2x faster than %'ing longs.
-        return ((int) hash) % width;
+        // hash is non-negative here and width is a power of two, so masking
+        // replaces the "%" that used to dominate this method.
+        return ((int) hash) & mask;
     }
 
     
@@ -134,8 +282,15 @@ public class CountMinSketchState implements State {
             // parameter to constructor.
             throw new IllegalArgumentException("Negative increments not implemented");
         }
-        for (int i = 0; i < depth; ++i) {
-            table[i][hash(item, i)] += count;
+        if (conservative) {
+            for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+                probes[i] = row + hash(item, i);
+            }
+            raiseProbes(count);
+        } else {
+            for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+                increment(row + hash(item, i), count);
+            }
         }
         size += count;
     }
@@ -149,88 +304,192 @@ public class CountMinSketchState implements State {
             // parameter to constructor.
             throw new IllegalArgumentException("Negative increments not implemented");
         }
-        int[] buckets = Filter.getHashBuckets(item, depth, width);
-        for (int i = 0; i < depth; ++i) {
-            table[i][buckets[i]] += count;
+        add(item, MurmurHash.hashChars64(item), count);
+    }
+
+    /**
+     * Adds count to a word whose MurmurHash.hashChars64 hash the caller
+     * already has, e.g. from pre-aggregating a batch.
+     */
+    public void add(String item, long hash, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative increments not implemented");
         }
+        if (hotKeys != null && addHot(item, hash, count)) {
+            return;
+        }
+        long estimate = addToCells(hash, count);
         size += count;
-        updatepriorityqueue(item);                                  // with each added word, the priority queue needs to be managed too
+        if (topk != null) {
+            topk.offer(item, hash, estimate);                       // with each added word, the Top-K list needs to be managed too
+        }
+        offerHot(item, hash, estimate);
     }
 
-    /****************************************************************
-    *******************StringComparator******************************
-    *****************************************************************
-    // Comparator class used to compare counts of words in CounMin //
-    // decide the basis of formation for a PriorityQueue           //
-    ****************************************************************/
-    public class StringComparator implements Comparator<String>
-    {
-        @Override
-        public int compare(String x, String y)
-        {
-        
-            if (estimateCount(x) < estimateCount(y))
-            {
-                return -1;                                            // return -1 if first string in argument has lesser count
-            }
-            if (estimateCount(x) > estimateCount(y))
-            {
-                return 1;                                             // return 1 if second string in argument has lesser count
+    /**
+     * add for a batch of distinct words, e.g. a pre-aggregated Trident
+     * batch: counts[j] occurrences of items[j], whose hash is hashes[j].
+     */
+    public void addAll(String[] items, long[] hashes, long[] counts, int n) {
+        for (int j = 0; j < n; j++) {
+            add(items[j], hashes[j], counts[j]);
+        }
+    }
+
+    // Adds count to the cells of a word and returns its new estimate, without
+    // counting it in size or offering it to the Top-K list.
+    long addToCells(long hash, long count) {
+        // One 64 bit hash of the chars gives all depth buckets
+        // (bucket i = h1 + i * h2, see Filter.getHashBuckets), so nothing
+        // is allocated per word.
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;                           // odd, so the probes cycle through all of a power-of-two row
+        if (conservative) {
+            for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+                probes[i] = row + ((h1 + i * h2) & mask);
             }
-            return 0;                                                 // return 0 if both strings have the same count
+            return raiseProbes(count);
         }
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+            int cell = row + ((h1 + i * h2) & mask);
+            estimate = Math.min(estimate, increment(cell, count));  // the new estimate comes for free while incrementing
+        }
+        return estimate;
     }
 
-    /****************************************************************
-    *******************updatepriorityqueue***************************
-    *****************************************************************
-    // Takes care of incoming words and updates the PriorityQueue  //
-    // to store only Top-K words                                   //
-    ****************************************************************/
-    public void updatepriorityqueue(String s)
-    {
-        int size;
-        long count_new, count_head;
-        String head, removedhead;
-
-        size = priorityqueue.size();
-        if(size<k)                                                   // If queue size is less than k, add the new word to queue
-        {
-            priorityqueue.remove(s);                                 // remove the word from queue, if it exists, to avoid duplicates
-            priorityqueue.offer(s);                                  // add the word to the queue 
-        }
-        else                                                         // else compare the incoming word with the top-K words in queue
-        {
-            count_new=estimateCount(s);                              // fetch the count of incoming word
-            head=priorityqueue.peek();                               // fetch the head of queue i.e. least count word in queue
-            count_head=estimateCount(head);                          // fetch the count of head word
-            if(count_new > count_head)                               // compare the counts
-            {
-                if(priorityqueue.contains(s) && head!=s)             // check if the queue already contains the incoming word 
-                    priorityqueue.remove(s);                         // and remove that if it's anything but the head of queue
-                removedhead=priorityqueue.poll();                    // remove the head from queue
-                priorityqueue.offer(s);                              // add the new word to queue
+    // counts a word in the hot-key tier; false if it is not hot
+    private boolean addHot(String item, long hash, long count) {
+        long estimate = hotKeys.add(item, hash, count);
+        if (estimate < 0) {
+            return false;
+        }
+        size += count;
+        if (topk != null) {
+            topk.offer(item, hash, estimate);
+        }
+        return true;
+    }
+
+    // promotes a word that is not hot into the hot-key tier if its estimate earns it a place
+    private void offerHot(String item, long hash, long estimate) {
+        if (hotKeys != null && hotKeys.admits(estimate)) {
+            hotKeys.promote(this, item, hash, estimate);
+        }
+    }
+
+    // Conservative update of the cells in probes: the word's new estimate is
+    // its old one plus count, and no cell needs to hold more than that, so
+    // cells below it are raised to it and the others are left alone. Each
+    // cell is read once and written at most once.
+    private long raiseProbes(long count) {
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; ++i) {
+            long v = table.get(probes[i]);
+            probed[i] = v;
+            estimate = Math.min(estimate, v);
+        }
+        estimate += count;
+        for (int i = 0; i < depth; ++i) {
+            if (probed[i] < estimate) {
+                setCell(probes[i], estimate);
             }
         }
+        return estimate;
+    }
+
+    /**
+     * Conservative update: add raises a word's cells only as far as its new
+     * estimate (its old estimate plus the count) instead of adding the count
+     * to every one of them. Estimates stay upper bounds and sketches stay
+     * mergeable. On AccuracyBenchmark's Zipf stream the mean overestimate
+     * was 2.0-2.3x lower at the same width, but the maximum error and the
+     * Top-K precision were unchanged, so the sketch cannot be made narrower
+     * for the same Top-K.
+     */
+    public void setConservativeUpdate(boolean enabled) {
+        this.conservative = enabled;
+        if (enabled && (probes == null || probes.length != depth)) {
+            probes = new int[depth];
+            probed = new long[depth];
+        }
+    }
+
+    public boolean isConservativeUpdate() {
+        return conservative;
+    }
+
+    /**
+     * Counts the heaviest words exactly, in a table of at most capacity
+     * words in front of the sketch, see HotKeyTier: a hot word costs one
+     * probe instead of depth cell updates, and from its promotion on its
+     * estimate grows by exactly what it is counted. Words are promoted by
+     * add and addAll only, not by the add of long items. Estimates, Top-K
+     * counts, snapshots and merges include both tiers. 0 disables the tier,
+     * after writing its counts into the cells.
+     */
+    public void enableHotKeys(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Hot-key capacity must not be negative: " + capacity);
+        }
+        if (hotKeys != null) {
+            hotKeys.checkpoint(this);
+        }
+        hotKeys = capacity > 0 ? new HotKeyTier(capacity) : null;
+    }
+
+    /** Capacity of the hot-key tier, 0 if it is disabled. */
+    public int getHotKeyCapacity() {
+        return hotKeys != null ? hotKeys.capacity() : 0;
+    }
+
+    /**
+     * Writes the counts the hot-key tier holds beyond the cells into the
+     * cells, so the table alone has every count (as snapshots need). The
+     * words stay hot and no estimate changes.
+     */
+    void checkpointHotKeys() {
+        if (hotKeys != null) {
+            hotKeys.checkpoint(this);
+        }
     }
 
     /****************************************************************
     *******************printprioq************************************
     *****************************************************************
-    // Displays the Top-K words from the PriorityQueue with counts //
+    // Displays the Top-K words from the tracker with counts       //
     ****************************************************************/
     public String printprioq()
     {
-        String result = "";
+        StringBuilder result = new StringBuilder();
+
+        for (int i = 0; topk != null && i < topk.size(); i++) {                     // counts are the estimates cached at each word's last add
+            result.append(topk.key(i)).append('(').append(topk.count(i)).append(") ");
+        }
+        return result.toString();
+    }
 
-        Object[] arr = priorityqueue.toArray();
-        for ( int i = 0; i<arr.length; i++ ){  
-          result+=arr[i].toString() + "(" + String.valueOf(estimateCount(arr[i].toString())) + ") ";
+    /**
+     * This partition's Top-K words with their cached counts, in no particular order.
+     */
+    public List<WordCount> topK()
+    {
+        List<WordCount> result = new ArrayList<WordCount>(k);
+        for (int i = 0; topk != null && i < topk.size(); i++) {
+            result.add(new WordCount(topk.key(i), topk.count(i)));
         }
         return result;
     }
 
     
+    public TopKSnapshot topKSnapshot() {
+        return published;
+    }
+
+    public long version() {
+        return version;
+    }
+
     public long size() {
         return size;
     }
@@ -242,117 +501,466 @@ public class CountMinSketchState implements State {
     
     public long estimateCount(long item) {
         long res = Long.MAX_VALUE;
-        for (int i = 0; i < depth; ++i) {
-            res = Math.min(res, table[i][hash(item, i)]);
+        for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+            res = Math.min(res, table.get(row + hash(item, i)));
         }
         return res;
     }
 
     
     public long estimateCount(String item) {
+        return estimateCount(item, MurmurHash.hashChars64(item));
+    }
+
+    public long estimateCount(String item, long hash) {
+        if (hotKeys != null) {
+            long hot = hotKeys.estimate(item, hash);
+            if (hot >= 0) {
+                return hot;
+            }
+        }
         long res = Long.MAX_VALUE;
-        int[] buckets = Filter.getHashBuckets(item, depth, width);
-        for (int i = 0; i < depth; ++i) {
-            res = Math.min(res, table[i][buckets[i]]);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+            res = Math.min(res, table.get(row + ((h1 + i * h2) & mask)));
         }
         return res;
     }
 
     /**
-     * Merges count min sketches to produce a count min sketch for their combined streams
+     * Batch estimateCount. The table is probed row by row rather than word by
+     * word, so each row is walked once for the whole batch while it is in
+     * cache.
+     */
+    public void estimateCounts(String[] items, long[] hashes, int n, long[] counts) {
+        Arrays.fill(counts, 0, n, Long.MAX_VALUE);
+        for (int i = 0, row = 0; i < depth; ++i, row += stride) {
+            for (int j = 0; j < n; j++) {
+                long hash = hashes[j];
+                long c = table.get(row + (((int) hash + i * ((int) (hash >>> 32) | 1)) & mask));
+                if (c < counts[j]) {
+                    counts[j] = c;
+                }
+            }
+        }
+        if (hotKeys != null) {
+            for (int j = 0; j < n; j++) {
+                long hot = hotKeys.estimate(items[j], hashes[j]);
+                if (hot >= 0) {
+                    counts[j] = hot;
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges count min sketches to produce a count min sketch for their combined streams.
+     * Wider estimators are folded down to the narrowest width on the way (see fold()).
+     * Counts held in hot-key tiers are added to the merged cells; the merged
+     * sketch has no tier of its own.
      *
      * @param estimators
      * @return merged estimator or null if no estimators were provided
-     * @throws CMSMergeException if estimators are not mergeable (same depth, width and seed)
+     * @throws CMSMergeException if estimators are not mergeable (same depth and seed)
      */
     public static CountMinSketchState merge(CountMinSketchState... estimators) throws CMSMergeException {
         CountMinSketchState merged = null;
         if (estimators != null && estimators.length > 0) {
             int depth = estimators[0].depth;
-            int width = estimators[0].width;
             long[] hashA = Arrays.copyOf(estimators[0].hashA, estimators[0].hashA.length);
 
-            long[][] table = new long[depth][width];
-            int size = 0;
+            int width = estimators[0].width;
+            CounterTable.Kind counters = estimators[0].table.kind();
+            for (CountMinSketchState estimator : estimators) {
+                width = Math.min(width, estimator.width);
+                if (estimator.table.kind() != counters) {
+                    counters = CounterTable.Kind.LONG;                  // mixed widths merge into full-width counters
+                }
+            }
+            merged = new CountMinSketchState(depth, width, 0, hashA, CounterTable.create(counters, depth * strideFor(width)));
 
             for (CountMinSketchState estimator : estimators) {
                 if (estimator.depth != depth) {
                     throw new CMSMergeException("Cannot merge estimators of different depth");
                 }
-                if (estimator.width != width) {
-                    throw new CMSMergeException("Cannot merge estimators of different width");
-                }
                 if (!Arrays.equals(estimator.hashA, hashA)) {
                     throw new CMSMergeException("Cannot merge estimators of different seed");
                 }
-
-                for (int i = 0; i < table.length; i++) {
-                    for (int j = 0; j < table[i].length; j++) {
-                        table[i][j] += estimator.table[i][j];
-                    }
+                merged.addFolded(estimator.table, estimator.width, estimator.stride);
+                if (estimator.hotKeys != null) {
+                    estimator.hotKeys.addDeltasTo(merged);
                 }
-                size += estimator.size;
+                merged.size += estimator.size;
             }
-
-            merged = new CountMinSketchState(depth, width, size, hashA, table);
         }
 
         return merged;
     }
 
+    /**
+     * Halves the width by adding the right half of every row onto its left
+     * half. Widths are powers of two and cells are picked by masking the
+     * hash, so a word's cell in the folded row is the sum of its old cell
+     * and the one folded onto it: estimates stay upper bounds, and eps (so
+     * the error bound) doubles. The Top-K list is kept as it is.
+     *
+     * @throws IllegalStateException if the width is already 1
+     * @throws UnsupportedOperationException if the counters are memory-mapped
+     */
+    public void fold() {
+        if (width < 2) {
+            throw new IllegalStateException("Cannot fold a sketch of width " + width);
+        }
+        CounterTable old = table;
+        int oldWidth = width;
+        int oldStride = stride;
+        width = oldWidth / 2;
+        mask = width - 1;
+        stride = strideFor(width);
+        eps = 2.0 / width;
+        table = old.emptyLike(depth * stride);
+        addFolded(old, oldWidth, oldStride);
+        folds++;
+    }
+
+    /** Folds until the width is at most the given one. */
+    public void foldTo(int targetWidth) {
+        while (width > Math.max(targetWidth, 1)) {
+            fold();
+        }
+    }
+
+    // adds the rows of a table of the same depth and at least this width, folding its columns onto ours
+    private void addFolded(CounterTable from, int fromWidth, int fromStride) {
+        for (int i = 0, row = 0, fromRow = 0; i < depth; ++i, row += stride, fromRow += fromStride) {
+            for (int j = 0; j < fromWidth; j++) {
+                long v = from.get(fromRow + j);
+                if (v != 0) {
+                    increment(row + (j & mask), v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serializes the sketch, including its Top-K list, in the compact
+     * format of CountMinSketchSerializer (with a checksum).
+     */
     public static byte[] serialize(CountMinSketchState sketch) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        DataOutputStream s = new DataOutputStream(bos);
+        return CountMinSketchSerializer.toBytes(sketch, true);
+    }
+
+    /**
+     * Reads a sketch written by serialize. The older fixed-width layout
+     * (size, depth, width, then seed and counters of every row as 8-byte
+     * values, optionally followed by the Top-K list) is still accepted.
+     */
+    public static CountMinSketchState deserialize(byte[] data) {
         try {
-            s.writeLong(sketch.size);
-            s.writeInt(sketch.depth);
-            s.writeInt(sketch.width);
-            for (int i = 0; i < sketch.depth; ++i) {
-                s.writeLong(sketch.hashA[i]);
-                for (int j = 0; j < sketch.width; ++j) {
-                    s.writeLong(sketch.table[i][j]);
-                }
+            if (CountMinSketchSerializer.isEncoded(data)) {
+                return CountMinSketchSerializer.decode(ByteBuffer.wrap(data));
             }
-            return bos.toByteArray();
+            return deserializeFixedWidth(data);
         } catch (IOException e) {
-            // Shouldn't happen
-            throw new RuntimeException(e);
+            throw new IllegalArgumentException("Cannot deserialize CountMin sketch", e);
         }
     }
 
-    public static CountMinSketchState deserialize(byte[] data) {
+    private static CountMinSketchState deserializeFixedWidth(byte[] data) throws IOException {
         ByteArrayInputStream bis = new ByteArrayInputStream(data);
         DataInputStream s = new DataInputStream(bis);
-        try {
-            CountMinSketchState sketch = new CountMinSketchState();
-            sketch.size = s.readLong();
-            sketch.depth = s.readInt();
-            sketch.width = s.readInt();
-            sketch.eps = 2.0 / sketch.width;
-            sketch.confidence = 1 - 1 / Math.pow(2, sketch.depth);
-            sketch.hashA = new long[sketch.depth];
-            sketch.table = new long[sketch.depth][sketch.width];
-            for (int i = 0; i < sketch.depth; ++i) {
-                sketch.hashA[i] = s.readLong();
-                for (int j = 0; j < sketch.width; ++j) {
-                    sketch.table[i][j] = s.readLong();
-                }
+        CountMinSketchState sketch = new CountMinSketchState();
+        sketch.size = s.readLong();
+        int depth = s.readInt();
+        int width = s.readInt();
+        if (depth < 1 || width < 1 || (long) depth * (8 + 8L * width) > data.length - 16) {
+            throw new IOException("Corrupt CountMin sketch of " + depth + " x " + width + " in " + data.length + " bytes");
+        }
+        sketch.initShape(depth, width, CounterTable.Kind.LONG);
+        for (int i = 0, row = 0; i < sketch.depth; ++i, row += sketch.stride) {
+            sketch.hashA[i] = s.readLong();
+            for (int j = 0; j < sketch.width; ++j) {
+                sketch.table.set(row + j, s.readLong());
             }
-            return sketch;
-        } catch (IOException e) {
-            // Shouldn't happen
-            throw new RuntimeException(e);
+        }
+        if (s.available() > 0) {                                    // older payloads end after the table
+            sketch.k = s.readInt();
+            int tracked = s.readInt();
+            if (tracked < 0 || tracked > sketch.k) {
+                throw new IOException("Corrupt Top-K list of " + tracked + " words for k = " + sketch.k);
+            }
+            if (sketch.k > 0) {
+                sketch.topk = new TopKTracker(sketch.k);
+            }
+            for (int i = 0; i < tracked; i++) {
+                String word = s.readUTF();
+                long count = s.readLong();
+                sketch.topk.offer(word, MurmurHash.hashChars64(word), count);
+            }
+        }
+        return sketch;
+    }
+
+    // sets up dimensions and an empty table for a sketch being deserialized
+    void initShape(int depth, int width, CounterTable.Kind counters) {
+        checkWidth(width);
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be positive: " + depth);
+        }
+        this.depth = depth;
+        this.width = width;
+        this.mask = width - 1;
+        this.stride = strideFor(width);
+        this.eps = 2.0 / width;
+        this.confidence = 1 - 1 / Math.pow(2, depth);
+        this.hashA = new long[depth];
+        this.table = CounterTable.create(counters, depth * stride);
+    }
+
+    // moves the counters to an off-heap table of the same shape
+    void moveOffHeap() {
+        CounterTable offHeap = OffHeapCounterTable.allocate(table.cells());
+        for (int i = 0; i < table.cells(); i++) {
+            long v = table.get(i);
+            if (v != 0) {
+                offHeap.set(i, v);
+            }
+        }
+        table = offHeap;
+    }
+
+    // adds to one cell, widening the table if the cell cannot hold the new count
+    long increment(int cell, long count) {
+        long v = table.add(cell, count);
+        if (v < 0) {
+            table = table.widen();
+            v = table.add(cell, count);
+        }
+        return v;
+    }
+
+    // sets one cell, widening the table if the cell cannot hold the count
+    void setCell(int cell, long count) {
+        if (!table.set(cell, count)) {
+            table = table.widen();
+            table.set(cell, count);
         }
     }
 
     @Override
     public void beginCommit(Long txid) {
-        return;
+        version++;
     }
 
     @Override
     public void commit(Long txid) {
-        return;
+        version++;
+        foldUnderPressure();
+        published = TopKSnapshot.of(txid, topK(), size, errorBound());
+        if (table instanceof MappedCounterTable) {
+            checkpointHotKeys();
+            ((MappedCounterTable) table).commit(txid, size, published.entries());   // persisted in place, no snapshot needed
+        } else if (snapshots != null && ++commitsSinceSnapshot >= snapshotEvery) {
+            commitsSinceSnapshot = 0;
+            long start = System.nanoTime();
+            byte[] payload = serialize(this);
+            if (serializeTime != null) {
+                serializeTime.record(System.nanoTime() - start);
+            }
+            snapshots.save(payload, txid);                          // only the copy is taken here, the file is written in the background
+        }
+    }
+
+    /**
+     * Resets all counters, the hot-key tier and the Top-K list, keeping
+     * dimensions and seeds.
+     */
+    public void clear() {
+        table.clear();
+        size = 0;
+        if (hotKeys != null) {
+            hotKeys.clear();
+        }
+        if (topk != null) {
+            topk.clear();
+        }
+    }
+
+    /**
+     * Snapshot this sketch to the given store every snapshotEvery commits.
+     */
+    public void enableSnapshots(SketchSnapshotStore store, int snapshotEvery) {
+        if (snapshotEvery < 1) {
+            throw new IllegalArgumentException("Snapshot interval must be at least one commit: " + snapshotEvery);
+        }
+        this.snapshots = store;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * Lets the sketch fold itself (see fold()) at commit time, never below
+     * minWidth:
+     * <ul>
+     * <li>as many times as needed to bring its counters under maxTableBytes</li>
+     * <li>once per garbage collection that leaves an old-generation heap
+     * pool fuller than maxHeapFraction</li>
+     * </ul>
+     * A zero limit is not checked.
+     */
+    public void enableFolding(long maxTableBytes, double maxHeapFraction, int minWidth) {
+        if (minWidth < 1) {
+            throw new IllegalArgumentException("Folding needs a minimum width of at least 1: " + minWidth);
+        }
+        this.maxTableBytes = maxTableBytes;
+        this.maxHeapFraction = maxHeapFraction;
+        this.minWidth = minWidth;
+    }
+
+    /** Number of times this sketch has been folded. */
+    public int getFolds() {
+        return folds;
+    }
+
+    // folds as allowed by enableFolding; returns whether it did
+    boolean foldUnderPressure() {
+        if (minWidth == 0) {
+            return false;
+        }
+        int before = folds;
+        while (width / 2 >= minWidth && maxTableBytes > 0 && table.sizeInBytes() > maxTableBytes) {
+            fold();
+        }
+        if (width / 2 >= minWidth && maxHeapFraction > 0) {
+            long gcs = collections();
+            if (gcs != gcsAtFold && oldGenFullness() > maxHeapFraction) {
+                fold();
+                gcsAtFold = gcs;                                    // the freed table only shows after the next collection
+            }
+        }
+        return folds != before;
+    }
+
+    // used / max of the tenured heap pool as of its last collection. Eden and
+    // survivor pools are skipped: survivors are routinely full after a minor
+    // collection, which says nothing about memory pressure. They are the heap
+    // pools without usage threshold support (Serial, Parallel, G1; ZGC has
+    // a single pool), and their names are checked too.
+    static double oldGenFullness() {
+        double fullness = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            String name = pool.getName();
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && pool.isCollectionUsageThresholdSupported()
+                && !name.contains("Eden") && !name.contains("Survivor")) {
+                MemoryUsage usage = pool.getCollectionUsage();
+                if (usage != null && usage.getMax() > 0) {
+                    fullness = Math.max(fullness, (double) usage.getUsed() / usage.getMax());
+                }
+            }
+        }
+        return fullness;
+    }
+
+    static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    /**
+     * Registers this partition's metrics: total count, error bound
+     * (eps * size), width, Top-K evictions per second, the count added
+     * through the hot-key tier if it is enabled and, with snapshots enabled,
+     * snapshot serialize and write times (sync time for counters in a
+     * memory-mapped file).
+     */
+    public void registerMetrics(IMetricsContext context, int bucketSecs) {
+        context.registerMetric("countmin.size", new IMetric() {
+            public Object getValueAndReset() {
+                return size;
+            }
+        }, bucketSecs);
+        context.registerMetric("countmin.error_bound", new IMetric() {
+            public Object getValueAndReset() {
+                return errorBound();
+            }
+        }, bucketSecs);
+        context.registerMetric("countmin.width", new IMetric() {
+            public Object getValueAndReset() {
+                return width;
+            }
+        }, bucketSecs);
+        context.registerMetric("countmin.topk_evictions_per_sec", new SketchMetrics.Rate() {
+            long seen;
+
+            @Override
+            public Object getValueAndReset() {
+                long evictions = evictions();
+                incrBy(evictions - seen);
+                seen = evictions;
+                return super.getValueAndReset();
+            }
+        }, bucketSecs);
+        if (hotKeys != null) {
+            context.registerMetric("countmin.hotkeys_served", new IMetric() {
+                public Object getValueAndReset() {
+                    return hotKeys != null ? hotKeys.served() : 0;
+                }
+            }, bucketSecs);
+        }
+        if (table instanceof MappedCounterTable) {
+            final MappedCounterTable mapped = (MappedCounterTable) table;
+            context.registerMetric("countmin.mapped_sync_ms", new IMetric() {
+                public Object getValueAndReset() {
+                    return mapped.getLastSyncMillis();
+                }
+            }, bucketSecs);
+        }
+        if (snapshots != null) {
+            serializeTime = context.registerMetric("countmin.snapshot_serialize_ms", new SketchMetrics.Histogram(), bucketSecs);
+            context.registerMetric("countmin.snapshot_write_ms", new IMetric() {
+                public Object getValueAndReset() {
+                    return snapshots.getLastWriteMillis();
+                }
+            }, bucketSecs);
+        }
+    }
+
+    /**
+     * With probability getConfidence(), no estimate exceeds the true count
+     * by more than this.
+     */
+    public long errorBound() {
+        return (long) Math.ceil(eps * size);
+    }
+
+    // words pushed out of the Top-K list so far
+    long evictions() {
+        return topk != null ? topk.evictions() : 0;
+    }
+
+    /** Memory taken by the counters, in bytes. */
+    public long getTableBytes() {
+        return table.sizeInBytes();
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /** Width of the counters, which may have been widened since the sketch was created. */
+    public CounterTable.Kind getCounterKind() {
+        return table.kind();
+    }
+
+    public int getK() {
+        return k;
     }
 
     @SuppressWarnings("serial")
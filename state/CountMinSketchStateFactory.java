@@ -2,6 +2,9 @@ package storm.starter.trident.project.countmin.state;
 
 import storm.trident.state.StateFactory;
 import storm.trident.state.State;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
 import java.util.Map;
 import backtype.storm.task.IMetricsContext;
 
@@ -11,11 +14,35 @@ import backtype.storm.task.IMetricsContext;
 
 public class CountMinSketchStateFactory implements StateFactory {
 
+	/** Where the counters of a partition are kept. */
+	public enum Storage {
+		HEAP,		// in a Java array, see withCounters
+		OFF_HEAP,	// in a direct buffer, invisible to the garbage collector
+		MAPPED		// in a memory-mapped file per partition, in the snapshot directory
+	}
+
 	protected int depth;
 	protected int width;
 	protected int seed;
 	int k;
 
+	String snapshotDir;			// directory for per-partition snapshots, null to disable them
+	int snapshotEvery;			// snapshot every this many commits
+
+	int windowIntervals;		// number of intervals in the sliding window, 0 to count forever
+	long intervalMillis;		// length of one interval
+
+	CounterTable.Kind counters = CounterTable.Kind.LONG;	// width of the sketch counters
+	Storage storage = Storage.HEAP;
+	boolean conservative;		// conservative update instead of adding to every cell
+	int hotKeys;				// words counted exactly in front of the sketch, 0 for none
+
+	HeavyHitterEngine.Type engine = HeavyHitterEngine.Type.COUNT_MIN;	// what counts the words
+
+	int minWidth;				// folding floor, 0 to never fold
+	long maxTableBytes;			// fold while a partition's counters take more than this
+	double maxHeapFraction;		// fold when the old generation is fuller than this after GC
+
 
 	public CountMinSketchStateFactory( int depth, int width, int seed,int k) {
 		this.depth=depth;
@@ -25,9 +52,246 @@ public class CountMinSketchStateFactory implements StateFactory {
 
 	}
 
+	/**
+	 * Dimensions for a target accuracy: with probability confidence, no
+	 * estimate exceeds the true count by more than eps times the partition's
+	 * total count.
+	 */
+	public static CountMinSketchStateFactory forAccuracy(double eps, double confidence, int seed, int k) {
+		return new CountMinSketchStateFactory(CountMinSketchState.depthFor(confidence), CountMinSketchState.widthFor(eps), seed, k);
+	}
+
+	/**
+	 * Snapshot every partition to snapshotDir every snapshotEvery commits,
+	 * and reload the last snapshot when a partition starts.
+	 */
+	public CountMinSketchStateFactory( int depth, int width, int seed,int k, String snapshotDir, int snapshotEvery) {
+		this(depth, width, seed, k);
+		this.snapshotDir = snapshotDir;
+		this.snapshotEvery = snapshotEvery;
+	}
+
+
+	/**
+	 * Count over a sliding window of windowIntervals intervals of
+	 * intervalMillis each, instead of since the topology started.
+	 * Snapshots are not taken in this mode.
+	 */
+	public CountMinSketchStateFactory withWindow(int windowIntervals, long intervalMillis) {
+		this.windowIntervals = windowIntervals;
+		this.intervalMillis = intervalMillis;
+		return this;
+	}
+
+	/**
+	 * Let every partition halve its width, down to minWidth, when its
+	 * counters take more than maxTableBytes or the heap is fuller than
+	 * maxHeapFraction after a collection (0 disables either check). The
+	 * error bound doubles with every fold and is reported as
+	 * "countmin.error_bound". Snapshots taken after a fold are reloaded at
+	 * their folded width.
+	 */
+	public CountMinSketchStateFactory withFolding(long maxTableBytes, double maxHeapFraction, int minWidth) {
+		this.maxTableBytes = maxTableBytes;
+		this.maxHeapFraction = maxHeapFraction;
+		this.minWidth = minWidth;
+		return this;
+	}
+
+	/**
+	 * Keep the counters of every partition on the heap, off the heap or in
+	 * a memory-mapped file. MAPPED needs the snapshot directory, where the
+	 * files are persisted in place: they are synced every snapshotEvery
+	 * commits instead of being snapshotted, and a restarted partition
+	 * re-maps its file. Off-heap and mapped counters are always 8 bytes and
+	 * mapped ones never fold. Not used in window mode.
+	 */
+	public CountMinSketchStateFactory withStorage(Storage storage) {
+		this.storage = storage;
+		return this;
+	}
+
+	/**
+	 * Use conservative update in every partition, see
+	 * CountMinSketchState.setConservativeUpdate.
+	 */
+	public CountMinSketchStateFactory withConservativeUpdate(boolean conservative) {
+		this.conservative = conservative;
+		return this;
+	}
+
+	/**
+	 * Count up to this many of the heaviest words of every partition exactly,
+	 * in front of the sketch, see CountMinSketchState.enableHotKeys. 0 (the
+	 * default) for none.
+	 */
+	public CountMinSketchStateFactory withHotKeys(int hotKeys) {
+		if (hotKeys < 0) {
+			throw new IllegalArgumentException("Hot-key capacity must not be negative: " + hotKeys);
+		}
+		this.hotKeys = hotKeys;
+		return this;
+	}
+
+	/**
+	 * Count with the given engine instead of a CountMinSketchState. Every
+	 * engine gets the memory of the configured CountMin table, see
+	 * newEngine. Engines other than COUNT_MIN take neither sliding windows
+	 * nor off-heap or mapped storage, and ignore the counter, folding
+	 * and conservative settings; they are snapshotted like
+	 * CountMin partitions.
+	 */
+	public CountMinSketchStateFactory withEngine(HeavyHitterEngine.Type engine) {
+		this.engine = engine;
+		return this;
+	}
+
+	/**
+	 * An engine taking about the given memory (for the sketches, not
+	 * counting their Top-K list of k words):
+	 * <ul>
+	 * <li>COUNT_MIN and COUNT_SKETCH: depth rows of 8-byte counters, as wide
+	 * as fits</li>
+	 * <li>HEAVY_KEEPER: 2 rows (as in the HeavyKeeper paper) of 12-byte
+	 * buckets, as wide as fits</li>
+	 * <li>SPACE_SAVING: as many counted words as fit at about 120 bytes each
+	 * (counter, index entry and a short word), and at least k</li>
+	 * </ul>
+	 * Widths are rounded down to a power of two.
+	 */
+	public static HeavyHitterEngine newEngine(HeavyHitterEngine.Type type, long bytes, int depth, int seed, int k) {
+		switch (type) {
+			case SPACE_SAVING:
+				return new SpaceSavingEngine((int) Math.max(k, Math.min(bytes / SpaceSavingEngine.BYTES_PER_WORD, 1 << 30)), k);
+			case HEAVY_KEEPER:
+				return new HeavyKeeperEngine(2, widthFor(bytes, 2 * HeavyKeeperEngine.BYTES_PER_BUCKET), seed, k);
+			case COUNT_SKETCH:
+				return new CountSketchEngine(depth, widthFor(bytes, 8L * depth), seed, k);
+			default:
+				return new CountMinEngine(depth, widthFor(bytes, 8L * depth), seed, k);
+		}
+	}
+
+	// largest power of two width whose columns of the given size fit in bytes
+	private static int widthFor(long bytes, long bytesPerColumn) {
+		return Integer.highestOneBit((int) Math.max(1, Math.min(bytes / bytesPerColumn, 1 << 30)));
+	}
+
+	/**
+	 * Use counters of the given width. Narrower counters fit a wider sketch
+	 * in the same memory; cells that outgrow them are widened as needed.
+	 */
+	public CountMinSketchStateFactory withCounters(CounterTable.Kind counters) {
+		this.counters = counters;
+		return this;
+	}
+
 
    @Override
    public State makeState(Map conf, IMetricsContext metrics, int partitionIndex, int numPartitions) {
-      return new CountMinSketchState(depth,width,seed,k);
+      int bucketSecs = SketchMetrics.bucketSecs(conf);
+      if (engine != HeavyHitterEngine.Type.COUNT_MIN) {
+         HeavyHitterState state = makeEngineState(partitionIndex, numPartitions);
+         state.registerMetrics(metrics, bucketSecs);
+         return state;
+      }
+      if (windowIntervals > 0) {
+         WindowedCountMinSketchState window = new WindowedCountMinSketchState(depth,width,seed,k,windowIntervals,intervalMillis,counters);
+         if (minWidth > 0) {
+            window.enableFolding(maxTableBytes, maxHeapFraction, minWidth);
+         }
+         window.setConservativeUpdate(conservative);
+         window.enableHotKeys(hotKeys);
+         window.registerMetrics(metrics, bucketSecs);
+         return window;
+      }
+      if (storage == Storage.MAPPED) {
+         if (snapshotDir == null) {
+            throw new IllegalStateException("Memory-mapped CountMin counters need a snapshot directory");
+         }
+         File file = new File(snapshotDir, "countmin-" + partitionIndex + ".cells");
+         CountMinSketchState state;
+         try {
+            state = CountMinSketchState.mapped(file, depth, width, seed, k, numPartitions, snapshotEvery);
+         } catch (IOException e) {
+            throw new IllegalStateException("Cannot map CountMin counters to " + file, e);
+         }
+         state.setConservativeUpdate(conservative);
+         state.enableHotKeys(hotKeys);
+         state.registerMetrics(metrics, bucketSecs);
+         return state;
+      }
+      if (snapshotDir == null) {
+         CountMinSketchState state = newState();
+         configure(state);
+         state.registerMetrics(metrics, bucketSecs);
+         return state;
+      }
+      SketchSnapshotStore store = new SketchSnapshotStore(new File(snapshotDir), partitionIndex, numPartitions);
+      CountMinSketchState state = null;
+      try {
+         state = store.load();
+      } catch (IOException e) {
+         System.err.println("Ignoring unreadable CountMin snapshot " + store.getFile() + ": " + e);
+      }
+      if (state == null || !sameShape(state)) {
+         state = newState();     // no usable snapshot, start cold
+      } else if (storage == Storage.OFF_HEAP) {
+         state.moveOffHeap();    // snapshots are read into heap arrays
+      }
+      configure(state);
+      state.enableSnapshots(store, snapshotEvery);
+      state.registerMetrics(metrics, bucketSecs);
+      return state;
    } 
+
+   private HeavyHitterState makeEngineState(int partitionIndex, int numPartitions) {
+      if (windowIntervals > 0 || storage != Storage.HEAP) {
+         throw new IllegalStateException("The " + engine + " engine supports neither sliding windows nor off-heap or mapped storage");
+      }
+      long bytes = 8L * depth * CountMinSketchState.roundUpToPowerOfTwo(width);     // what the CountMin table would take
+      HeavyHitterEngine fresh = newEngine(engine, bytes, depth, seed, k);
+      if (snapshotDir == null) {
+         return new HeavyHitterState(fresh);
+      }
+      SketchSnapshotStore store = new SketchSnapshotStore(new File(snapshotDir), engine.name().toLowerCase(Locale.ROOT), partitionIndex, numPartitions);
+      HeavyHitterEngine restored = null;
+      try {
+         byte[] payload = store.loadPayload();
+         if (payload != null) {
+            restored = HeavyHitterSerializer.fromBytes(payload);
+         }
+      } catch (IOException e) {
+         System.err.println("Ignoring unreadable " + engine + " snapshot " + store.getFile() + ": " + e);
+      } catch (RuntimeException e) {
+         System.err.println("Ignoring undecodable " + engine + " snapshot " + store.getFile() + ": " + e);   // start fresh rather than crash-loop
+      }
+      // a snapshot of other dimensions cannot be continued
+      HeavyHitterState state = new HeavyHitterState(restored != null && fresh.canMerge(restored) ? restored : fresh);
+      state.enableSnapshots(store, snapshotEvery);
+      return state;
+   }
+
+   private CountMinSketchState newState() {
+      if (storage == Storage.OFF_HEAP) {
+         return CountMinSketchState.offHeap(depth,width,seed,k);
+      }
+      return new CountMinSketchState(depth,width,seed,k,counters);
+   }
+
+   private void configure(CountMinSketchState state) {
+      state.setConservativeUpdate(conservative);
+      state.enableHotKeys(hotKeys);
+      if (minWidth > 0) {
+         state.enableFolding(maxTableBytes, maxHeapFraction, minWidth);
+      }
+   }
+
+   // a snapshot taken with other dimensions cannot be continued, unless it was folded from ours
+   private boolean sameShape(CountMinSketchState state) {
+      int configured = CountMinSketchState.roundUpToPowerOfTwo(width);
+      return state.getDepth() == depth
+          && (state.getWidth() == configured || minWidth > 0 && state.getWidth() < configured)
+          && state.getK() == k;
+   }
 }
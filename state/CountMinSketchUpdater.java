@@ -1,25 +1,56 @@
 package storm.starter.trident.project.countmin.state;
 
+import backtype.storm.metric.api.MeanReducer;
+import backtype.storm.metric.api.ReducedMetric;
 import storm.trident.state.BaseStateUpdater;
 import storm.trident.tuple.TridentTuple;
 import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Map;
 
 /**
  *@author: Preetham MS (pmahish@ncsu.edu)
  */
 
-public class CountMinSketchUpdater extends BaseStateUpdater<CountMinSketchState> {
-    public void updateState(CountMinSketchState state, List<TridentTuple> tuples, TridentCollector collector) {
-        List<Long> ids = new ArrayList<Long>();
-        List<String> locations = new ArrayList<String>();
-        for(TridentTuple t: tuples) {
-            //ids.add(t.getLong(0));
-            //locations.add(t.getString(1));
+public class CountMinSketchUpdater extends BaseStateUpdater<TopKState> {
+
+    private transient WordCountMap batch;                       // reused for every batch
 
-            state.add(t.getString(0),1);
+    private transient SketchMetrics.Rate wordsPerSec;
+    private transient ReducedMetric distinctPerBatch;
+    private transient SketchMetrics.Histogram updateTime;
+
+    @Override
+    public void prepare(Map conf, TridentOperationContext context) {
+        batch = new WordCountMap(1024);
+        int bucketSecs = SketchMetrics.bucketSecs(conf);
+        wordsPerSec = context.registerMetric("countmin.words_per_sec", new SketchMetrics.Rate(), bucketSecs);
+        distinctPerBatch = context.registerMetric("countmin.distinct_per_batch", new MeanReducer(), bucketSecs);
+        updateTime = context.registerMetric("countmin.update_ms", new SketchMetrics.Histogram(), bucketSecs);
+    }
+
+    public void updateState(TopKState state, List<TridentTuple> tuples, TridentCollector collector) {
+        // Collapse the batch into distinct words first, so a word seen n times
+        // costs one sketch update and one Top-K update instead of n.
+        // Tuples are either (word) or (word, count, hash) from StopWordTokenizer
+        // and WordCountAggregator, whose hash is used as is.
+        long start = System.nanoTime();
+        batch.clear();
+        for(TridentTuple t: tuples) {
+            if (t.size() > 2) {
+                batch.add(t.getString(0), t.getLong(2), t.getLong(1));
+            } else {
+                batch.add(t.getString(0), t.size() > 1 ? t.getLong(1) : 1);
+            }
+        }
+        long words = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            words += batch.count(i);
         }
-        
+        state.addAll(batch.keys(), batch.hashes(), batch.counts(), batch.size());
+        wordsPerSec.incrBy(words);
+        distinctPerBatch.update(batch.size());
+        updateTime.record(System.nanoTime() - start);
     }
 }
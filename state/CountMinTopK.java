@@ -7,26 +7,35 @@ import storm.trident.operation.TridentCollector;
 import java.util.List;
 import java.util.ArrayList;
 import backtype.storm.tuple.Values;
-import java.util.*;
 import storm.starter.trident.project.countmin.state.CountMinSketchState;
 
 /**
  *@author: SWAGAT
  */
 
-public class CountMinTopK extends BaseQueryFunction<CountMinSketchState, String> {
-    public List<String> batchRetrieve(CountMinSketchState state, List<TridentTuple> inputs) {
+public class CountMinTopK extends BaseQueryFunction<TopKState, List<WordCount>> {
+    public List<List<WordCount>> batchRetrieve(TopKState state, List<TridentTuple> inputs) {
 
-    List<String> priolist = new ArrayList();
+    List<List<WordCount>> candidates = new ArrayList<List<WordCount>>();
 
-    PriorityQueue<String> prioq; 
-    String s;
-    s = state.printprioq();
-    priolist.add(s);
+    for (TridentTuple input : inputs) {
+        String args = input.getString(0);
+        int n = TopKQuery.lastIntervals(args);
+        List<WordCount> top;
+        if (n > 0 && state instanceof WindowedCountMinSketchState) {
+            top = ((WindowedCountMinSketchState) state).topK(n);               // Top-K over the last n intervals only, computed now
+        } else {
+            top = state.topKSnapshot().entries();                              // this partition's Top-K as of its last commit, nothing recomputed
+        }
+        int k = TopKQuery.k(args, top.size());
+        candidates.add(top.subList(0, Math.min(Math.max(k, 0), top.size())));  // no partition needs to send more than k words
+    }
      
-    return priolist;    // return the list of top-k words and their counts in concatenated format
+    return candidates;    // the lists of all partitions are reduced into the global Top-K by TopKCombiner
 }
-    public void execute(TridentTuple tuple, String count, TridentCollector collector) {
-        collector.emit(new Values(count));
+    public void execute(TridentTuple tuple, List<WordCount> candidates, TridentCollector collector) {
+        for (WordCount w : candidates) {
+            collector.emit(new Values(w.word, w.count, w.error));
+        }
     }    
 }
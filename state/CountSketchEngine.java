@@ -0,0 +1,198 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Count Sketch: depth rows of signed counters, next to a Top-K list.
+ * Finding Frequent Items in Data Streams (Charikar, Chen, Farach-Colton)
+ *
+ * A word adds its count to one counter per row, with a sign of its own in
+ * each row, and its estimate is the median over the rows of counter times
+ * sign. Other words in the same counter cancel out on average instead of
+ * piling up, so estimates are unbiased (they may be low as well as high)
+ * and their error depends on the spread of the counts rather than on the
+ * total, which suits skewed streams.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class CountSketchEngine implements HeavyHitterEngine {
+
+    static final int MAX_DEPTH = 64;                                    // one sign bit per row
+
+    private final int depth;
+    private final int width;                                            // a power of two
+    private final int mask;
+    private long salt;                                                  // from the seed, mixed into every hash
+    private final long[] counters;                                      // row i is counters [i * width, (i + 1) * width)
+    private int k;
+    private TopKTracker topk;
+    private long size;
+    private final long[] rows;                                          // add scratch: the word's signed counters
+
+    public CountSketchEngine(int depth, int width, int seed, int k) {
+        if (depth < 1 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Depth must be between 1 and " + MAX_DEPTH + ": " + depth);
+        }
+        this.depth = depth;
+        this.width = CountMinSketchState.roundUpToPowerOfTwo(width);
+        this.mask = this.width - 1;
+        this.salt = MurmurHash.fmix64(seed + 0x9E3779B97F4A7C15L);
+        this.counters = new long[depth * this.width];
+        this.k = k;
+        this.topk = new TopKTracker(k);
+        this.rows = new long[depth];
+    }
+
+    public Type type() {
+        return Type.COUNT_SKETCH;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void add(String item, long hash, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative increments not implemented");
+        }
+        long x = MurmurHash.fmix64(hash ^ salt);
+        int h1 = (int) x;
+        int h2 = (int) (x >>> 32) | 1;
+        long signs = MurmurHash.fmix64(x);
+        long max = Long.MIN_VALUE;
+        for (int i = 0, row = 0; i < depth; ++i, row += width) {
+            int c = row + ((h1 + i * h2) & mask);
+            long v = (signs >>> i & 1) != 0 ? (counters[c] += count) : -(counters[c] -= count);
+            rows[i] = v;
+            max = Math.max(max, v);
+        }
+        size += count;
+        // the median is at most the largest value: most words cannot make the Top-K list, and are not sorted
+        if (max > topk.minCount() || topk.contains(item, hash)) {
+            long estimate = median(rows, depth);
+            if (estimate > 0) {
+                topk.offer(item, hash, estimate);
+            }
+        }
+    }
+
+    public void addAll(String[] items, long[] hashes, long[] counts, int n) {
+        for (int j = 0; j < n; j++) {
+            add(items[j], hashes[j], counts[j]);
+        }
+    }
+
+    /** The median of the word's signed counters, 0 if it is negative. */
+    public long estimateCount(String item, long hash) {
+        long x = MurmurHash.fmix64(hash ^ salt);
+        int h1 = (int) x;
+        int h2 = (int) (x >>> 32) | 1;
+        long signs = MurmurHash.fmix64(x);
+        long[] values = new long[depth];
+        for (int i = 0, row = 0; i < depth; ++i, row += width) {
+            long v = counters[row + ((h1 + i * h2) & mask)];
+            values[i] = (signs >>> i & 1) != 0 ? v : -v;
+        }
+        return median(values, depth);
+    }
+
+    public List<WordCount> topK() {
+        List<WordCount> words = new ArrayList<WordCount>(topk.size());
+        for (int i = 0; i < topk.size(); i++) {
+            words.add(new WordCount(topk.key(i), topk.count(i)));
+        }
+        return words;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /** UNKNOWN_ERROR: estimates may be low as well as high. */
+    public long errorBound() {
+        return UNKNOWN_ERROR;
+    }
+
+    public boolean canMerge(HeavyHitterEngine other) {
+        if (!(other instanceof CountSketchEngine)) {
+            return false;
+        }
+        CountSketchEngine that = (CountSketchEngine) other;
+        return that.depth == depth && that.width == width && that.salt == salt;
+    }
+
+    /**
+     * Adds the counters, which is exact: the result is the sketch of both
+     * streams. The Top-K lists of both are re-ranked with the merged
+     * estimates.
+     */
+    public void merge(HeavyHitterEngine other) {
+        if (!canMerge(other)) {
+            throw new IllegalArgumentException("Cannot merge " + other.type() + " into a Count Sketch engine of " + depth + " x " + width);
+        }
+        CountSketchEngine that = (CountSketchEngine) other;
+        for (int c = 0; c < counters.length; c++) {
+            counters[c] += that.counters[c];
+        }
+        size += that.size;
+        List<WordCount> candidates = topK();
+        candidates.addAll(that.topK());
+        topk = new TopKTracker(k);
+        for (WordCount w : candidates) {
+            long hash = MurmurHash.hashChars64(w.word);
+            topk.offer(w.word, hash, estimateCount(w.word, hash));
+        }
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(depth);
+        out.writeInt(width);
+        out.writeLong(salt);
+        out.writeLong(size);
+        for (long c : counters) {
+            out.writeLong(c);
+        }
+        HeavyHitterSerializer.writeWords(topk, out);
+    }
+
+    static CountSketchEngine readFrom(DataInputStream in) throws IOException {
+        int depth = in.readInt();
+        int width = in.readInt();
+        HeavyHitterSerializer.checkCells(in, depth, width, 8);
+        CountSketchEngine engine = new CountSketchEngine(depth, width, 0, 1);
+        engine.salt = in.readLong();
+        engine.size = in.readLong();
+        for (int c = 0; c < engine.counters.length; c++) {
+            engine.counters[c] = in.readLong();
+        }
+        engine.topk = HeavyHitterSerializer.readWords(in);
+        engine.k = engine.topk.capacity();
+        return engine;
+    }
+
+    public long sizeInBytes() {
+        return 8L * counters.length + topk.sizeInBytes();
+    }
+
+    // median of the first n values, not below 0; sorts them in place
+    private static long median(long[] values, int n) {
+        for (int i = 1; i < n; i++) {                                   // insertion sort, n is the depth
+            long v = values[i];
+            int j = i - 1;
+            for (; j >= 0 && values[j] > v; j--) {
+                values[j + 1] = values[j];
+            }
+            values[j + 1] = v;
+        }
+        long median = (n & 1) != 0 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2;
+        return Math.max(median, 0);
+    }
+}
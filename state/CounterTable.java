@@ -0,0 +1,294 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.util.Arrays;
+
+/**
+ * The counter cells of a CountMinSketchState, in one of three widths:
+ * <ul>
+ * <li>LONG: 8 bytes per cell</li>
+ * <li>INT: 4 bytes per cell, unsigned, up to 2^32 - 1. A cell that would
+ * go past that makes the sketch widen the whole table to LONG.</li>
+ * <li>TIERED: 2 bytes per cell, up to 65534. A cell that reaches 65535 is
+ * moved, with its full count, to a small hash map of 8-byte counters.</li>
+ * </ul>
+ * Most cells of a sketch stay small, so a narrower table holds two or four
+ * times the width in the same memory, and more of it stays in cache.
+ *
+ * LONG cells can also be kept outside the Java heap, see
+ * OffHeapCounterTable and MappedCounterTable.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public abstract class CounterTable {
+
+    public enum Kind { LONG, INT, TIERED }
+
+    /** An empty table of the given kind. */
+    public static CounterTable create(Kind kind, int cells) {
+        switch (kind) {
+            case INT:
+                return new Ints(cells);
+            case TIERED:
+                return new Tiered(cells);
+            default:
+                return new Longs(new long[cells]);
+        }
+    }
+
+    /** A LONG table backed by the given array, without copying. */
+    public static CounterTable wrap(long[] cells) {
+        return new Longs(cells);
+    }
+
+    public abstract Kind kind();
+
+    /** Number of cells. */
+    public abstract int cells();
+
+    public abstract long get(int i);
+
+    /**
+     * Adds delta (non-negative) to cell i.
+     *
+     * @return the new count, or -1 if the cell cannot hold it, in which
+     *         case the cell is unchanged and the caller should widen()
+     */
+    public abstract long add(int i, long delta);
+
+    /**
+     * Sets cell i to a non-negative count.
+     *
+     * @return false if the cell cannot hold it, in which case the cell is
+     *         unchanged and the caller should widen()
+     */
+    public abstract boolean set(int i, long value);
+
+    public abstract void clear();
+
+    /** Approximate memory taken by the cells, in bytes. */
+    public abstract long sizeInBytes();
+
+    /** An empty table of the same kind and storage, with the given number of cells. */
+    public CounterTable emptyLike(int cells) {
+        return create(kind(), cells);
+    }
+
+    /**
+     * A table with the same counts whose cells hold any long, or this table
+     * if its cells already do.
+     */
+    public CounterTable widen() {
+        long[] wide = new long[cells()];
+        for (int i = 0; i < wide.length; i++) {
+            wide[i] = get(i);
+        }
+        return new Longs(wide);
+    }
+
+    static final class Longs extends CounterTable {
+        private final long[] cells;
+
+        Longs(long[] cells) {
+            this.cells = cells;
+        }
+
+        public Kind kind() {
+            return Kind.LONG;
+        }
+
+        public int cells() {
+            return cells.length;
+        }
+
+        public long get(int i) {
+            return cells[i];
+        }
+
+        public long add(int i, long delta) {
+            return cells[i] += delta;
+        }
+
+        public boolean set(int i, long value) {
+            cells[i] = value;
+            return true;
+        }
+
+        public void clear() {
+            Arrays.fill(cells, 0);
+        }
+
+        public long sizeInBytes() {
+            return 8L * cells.length;
+        }
+
+        @Override
+        public CounterTable widen() {
+            return this;
+        }
+    }
+
+    static final class Ints extends CounterTable {
+        private static final long MAX = 0xFFFFFFFFL;
+
+        private final int[] cells;
+
+        Ints(int cells) {
+            this.cells = new int[cells];
+        }
+
+        public Kind kind() {
+            return Kind.INT;
+        }
+
+        public int cells() {
+            return cells.length;
+        }
+
+        public long get(int i) {
+            return cells[i] & MAX;
+        }
+
+        public long add(int i, long delta) {
+            long v = (cells[i] & MAX) + delta;
+            if (v > MAX) {
+                return -1;
+            }
+            cells[i] = (int) v;
+            return v;
+        }
+
+        public boolean set(int i, long value) {
+            if (value > MAX) {
+                return false;
+            }
+            cells[i] = (int) value;
+            return true;
+        }
+
+        public void clear() {
+            Arrays.fill(cells, 0);
+        }
+
+        public long sizeInBytes() {
+            return 4L * cells.length;
+        }
+    }
+
+    static final class Tiered extends CounterTable {
+        private static final char ESCAPE = 0xFFFF;                      // the count lives in the overflow map
+
+        private final char[] small;
+
+        // overflow map, open addressing: cell + 1 (0 for an empty slot) -> count
+        private int[] keys;
+        private long[] counts;
+        private int overflowed;
+
+        Tiered(int cells) {
+            this.small = new char[cells];
+            resetOverflow(16);
+        }
+
+        public Kind kind() {
+            return Kind.TIERED;
+        }
+
+        public int cells() {
+            return small.length;
+        }
+
+        public long get(int i) {
+            char c = small[i];
+            return c != ESCAPE ? c : counts[find(i)];
+        }
+
+        public long add(int i, long delta) {
+            long v = small[i];
+            if (v == ESCAPE) {
+                return counts[find(i)] += delta;
+            }
+            v += delta;
+            if (v < ESCAPE) {
+                small[i] = (char) v;
+            } else {
+                small[i] = ESCAPE;
+                put(i, v);
+            }
+            return v;
+        }
+
+        public boolean set(int i, long value) {
+            if (small[i] == ESCAPE) {
+                counts[find(i)] = value;                                // once moved, a cell stays in the map
+            } else if (value < ESCAPE) {
+                small[i] = (char) value;
+            } else {
+                small[i] = ESCAPE;
+                put(i, value);
+            }
+            return true;
+        }
+
+        public void clear() {
+            Arrays.fill(small, (char) 0);
+            resetOverflow(16);
+        }
+
+        public long sizeInBytes() {
+            return 2L * small.length + 12L * keys.length;
+        }
+
+        @Override
+        public CounterTable widen() {
+            return this;                                                // never overflows
+        }
+
+        /** Number of cells moved to the overflow map. */
+        int overflowed() {
+            return overflowed;
+        }
+
+        private void resetOverflow(int capacity) {
+            keys = new int[capacity];
+            counts = new long[capacity];
+            overflowed = 0;
+        }
+
+        // slot of a cell that is in the map
+        private int find(int cell) {
+            int mask = keys.length - 1;
+            for (int slot = mix(cell) & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == cell + 1) {
+                    return slot;
+                }
+            }
+        }
+
+        // adds a cell that is not in the map yet
+        private void put(int cell, long count) {
+            if (2 * (overflowed + 1) > keys.length) {
+                int[] oldKeys = keys;
+                long[] oldCounts = counts;
+                resetOverflow(2 * oldKeys.length);
+                for (int slot = 0; slot < oldKeys.length; slot++) {
+                    if (oldKeys[slot] != 0) {
+                        put(oldKeys[slot] - 1, oldCounts[slot]);
+                    }
+                }
+            }
+            int mask = keys.length - 1;
+            int slot = mix(cell) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = cell + 1;
+            counts[slot] = count;
+            overflowed++;
+        }
+
+        private static int mix(int cell) {
+            int h = cell * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
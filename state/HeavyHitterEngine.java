@@ -0,0 +1,82 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A summary of a word stream that finds its most frequent words: the
+ * counting core of a HeavyHitterState, independent of Trident.
+ *
+ * Words are passed with their MurmurHash.hashChars64 hash, which every
+ * engine derives its buckets from, so a word is hashed once however many
+ * structures it goes through. Engines are not thread-safe.
+ *
+ * Implementations:
+ * <ul>
+ * <li>COUNT_MIN: CountMinEngine, a CountMinSketchState with its Top-K list</li>
+ * <li>SPACE_SAVING: SpaceSavingEngine, counters for a fixed number of words</li>
+ * <li>HEAVY_KEEPER: HeavyKeeperEngine, fingerprinted buckets with decay</li>
+ * <li>COUNT_SKETCH: CountSketchEngine, signed counters and a median</li>
+ * </ul>
+ * See CountMinSketchStateFactory.newEngine for sizing them to the same
+ * memory, and HeavyHitterBenchmark for how they compare.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public interface HeavyHitterEngine {
+
+    /** errorBound of an engine whose estimates are not upper bounds. */
+    long UNKNOWN_ERROR = -1;
+
+    enum Type { COUNT_MIN, SPACE_SAVING, HEAVY_KEEPER, COUNT_SKETCH }
+
+    Type type();
+
+    /** Adds count (non-negative) occurrences of a word. */
+    void add(String item, long hash, long count);
+
+    /**
+     * add for the first n words at once. The words must be distinct.
+     */
+    void addAll(String[] items, long[] hashes, long[] counts, int n);
+
+    /** Estimated count of a word. */
+    long estimateCount(String item, long hash);
+
+    /** The k most frequent words with their estimated counts, in no particular order. */
+    List<WordCount> topK();
+
+    /** Total count added so far. */
+    long size();
+
+    /**
+     * How far an estimate may exceed the true count (with the engine's
+     * confidence), or UNKNOWN_ERROR if the engine gives no such bound
+     * because its estimates may also fall short of the true count.
+     */
+    long errorBound();
+
+    /**
+     * True if other is of the same type, dimensions and seed, so that it
+     * can be merged into this engine.
+     */
+    boolean canMerge(HeavyHitterEngine other);
+
+    /**
+     * Adds the counts of another engine, which must be mergeable with this
+     * one (see canMerge), as if its stream had been added here.
+     *
+     * @throws IllegalArgumentException if it is not
+     */
+    void merge(HeavyHitterEngine other);
+
+    /**
+     * Writes the engine's dimensions and counts. HeavyHitterSerializer adds
+     * the header that tells which engine to read them back with.
+     */
+    void writeTo(DataOutputStream out) throws IOException;
+
+    /** Approximate memory taken by the engine, including the words it keeps, in bytes. */
+    long sizeInBytes();
+}
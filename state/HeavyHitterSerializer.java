@@ -0,0 +1,174 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Binary format of a HeavyHitterEngine, as kept in the snapshots of a
+ * HeavyHitterState.
+ *
+ * <pre>
+ * magic    4 bytes  "HHEN"
+ * version  1 byte
+ * type     1 byte   HeavyHitterEngine.Type ordinal
+ * length   4 bytes  of the payload
+ * payload  the engine's writeTo
+ * crc      4 bytes  CRC32 of everything before it
+ * </pre>
+ *
+ * A CountMinEngine's payload is a CountMinSketchSerializer encoding,
+ * length-prefixed; the other engines write their dimensions and counters
+ * as plain big-endian values, with the tracked words as counted lists
+ * (see writeWords).
+ *
+ * The checksum is verified before the payload is parsed, and the engines'
+ * readFrom check every dimension against the bytes left in the payload
+ * (always read from memory) before allocating anything, so a corrupt
+ * snapshot fails with an IOException instead of a runtime error or an
+ * oversized allocation.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class HeavyHitterSerializer implements ICompactSerializer<HeavyHitterEngine> {
+
+    static final int MAGIC = 0x4848454e;                                 // "HHEN"
+    static final byte VERSION = 1;
+    static final int HEADER_BYTES = 10;
+
+    // limits on what readFrom accepts, far above any engine the topology makes
+    static final int MAX_DEPTH = 64;
+    static final int MAX_WORDS = 1 << 20;                               // Top-K capacity
+
+    public void serialize(HeavyHitterEngine engine, DataOutputStream dos) throws IOException {
+        dos.write(toBytes(engine));
+    }
+
+    public HeavyHitterEngine deserialize(DataInputStream dis) throws IOException {
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not a heavy-hitter engine");
+        }
+        int version = dis.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported heavy-hitter engine version " + version);
+        }
+        int type = dis.readByte();
+        if (type < 0 || type >= HeavyHitterEngine.Type.values().length) {
+            throw new IOException("Unknown heavy-hitter engine type " + type);
+        }
+        int length = dis.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupt heavy-hitter engine length " + length);
+        }
+        byte[] payload = new byte[length];
+        dis.readFully(payload);
+        if (dis.readInt() != (int) crc(type, payload)) {
+            throw new IOException("Heavy-hitter engine checksum mismatch");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        HeavyHitterEngine engine;
+        try {
+            switch (HeavyHitterEngine.Type.values()[type]) {
+                case SPACE_SAVING:
+                    engine = SpaceSavingEngine.readFrom(in);
+                    break;
+                case HEAVY_KEEPER:
+                    engine = HeavyKeeperEngine.readFrom(in);
+                    break;
+                case COUNT_SKETCH:
+                    engine = CountSketchEngine.readFrom(in);
+                    break;
+                default:
+                    engine = CountMinEngine.readFrom(in);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt heavy-hitter engine", e);
+        }
+        if (in.available() != 0) {
+            throw new IOException("Heavy-hitter engine has " + in.available() + " bytes past its end");
+        }
+        return engine;
+    }
+
+    public static byte[] toBytes(HeavyHitterEngine engine) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            engine.writeTo(new DataOutputStream(payload));
+            byte[] body = payload.toByteArray();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + body.length + 4);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(engine.type().ordinal());
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeInt((int) crc(engine.type().ordinal(), body));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);                             // not thrown by a ByteArrayOutputStream
+        }
+    }
+
+    public static HeavyHitterEngine fromBytes(byte[] data) throws IOException {
+        if (data.length < HEADER_BYTES + 4) {
+            throw new IOException("Truncated heavy-hitter engine");
+        }
+        int length = (data[6] & 0xff) << 24 | (data[7] & 0xff) << 16 | (data[8] & 0xff) << 8 | (data[9] & 0xff);
+        if (length != data.length - HEADER_BYTES - 4) {
+            throw new IOException("Heavy-hitter engine of " + data.length + " bytes claims a payload of " + length);
+        }
+        return new HeavyHitterSerializer().deserialize(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    // CRC32 of the header and the payload
+    private static long crc(int type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        byte[] header = {(byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC, VERSION, (byte) type,
+                         (byte) (payload.length >>> 24), (byte) (payload.length >>> 16), (byte) (payload.length >>> 8), (byte) payload.length};
+        crc.update(header, 0, header.length);
+        crc.update(payload, 0, payload.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Checks depth rows of width cells of cellBytes each against the limits
+     * and the bytes left in the payload, before they are allocated.
+     */
+    static void checkCells(DataInputStream in, int depth, int width, int cellBytes) throws IOException {
+        if (depth < 1 || depth > MAX_DEPTH || width < 1 || Integer.bitCount(width) != 1
+            || (long) depth * width * cellBytes > in.available()) {
+            throw new IOException("Corrupt heavy-hitter engine of " + depth + " x " + width);
+        }
+    }
+
+    // the words of a tracker with their counts
+    static void writeWords(TopKTracker words, DataOutputStream out) throws IOException {
+        out.writeInt(words.capacity());
+        out.writeInt(words.size());
+        for (int i = 0; i < words.size(); i++) {
+            out.writeUTF(words.key(i));
+            out.writeLong(words.count(i));
+        }
+    }
+
+    static TopKTracker readWords(DataInputStream in) throws IOException {
+        int capacity = in.readInt();
+        int n = in.readInt();
+        if (capacity < 1 || capacity > MAX_WORDS || n < 0 || n > capacity || 10L * n > in.available()) {
+            throw new IOException("Corrupt Top-K list of " + n + " words for k = " + capacity);
+        }
+        TopKTracker words = new TopKTracker(capacity);
+        for (; n > 0; n--) {
+            String word = in.readUTF();
+            long count = in.readLong();
+            if (count < 0) {
+                throw new IOException("Corrupt Top-K count " + count);
+            }
+            words.offer(word, MurmurHash.hashChars64(word), count);
+        }
+        return words;
+    }
+}
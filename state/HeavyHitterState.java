@@ -0,0 +1,136 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.util.List;
+
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.IMetricsContext;
+
+/**
+ * A Trident state counting words with any HeavyHitterEngine, for the
+ * engines other than CountMin (which has its own CountMinSketchState).
+ * CountMinSketchUpdater, CountMinTopK and CountMinQuery work with it
+ * unchanged.
+ *
+ * Like CountMinSketchState it publishes its Top-K list at every commit and
+ * can snapshot the engine (HeavyHitterSerializer format) every so many
+ * commits, to be reloaded when the partition restarts.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class HeavyHitterState implements TopKState {
+
+    private final HeavyHitterEngine engine;
+
+    private SketchSnapshotStore snapshots;                              // null unless snapshots are enabled
+    private int snapshotEvery;
+    private int commitsSinceSnapshot;
+    private SketchMetrics.Histogram serializeTime;                      // null unless metrics are registered
+
+    private volatile TopKSnapshot published = TopKSnapshot.EMPTY;       // Top-K as of the last commit
+    private long version;                                               // see TopKState.version
+
+    public HeavyHitterState(HeavyHitterEngine engine) {
+        this.engine = engine;
+    }
+
+    public HeavyHitterEngine getEngine() {
+        return engine;
+    }
+
+    public void add(String item, long hash, long count) {
+        engine.add(item, hash, count);
+    }
+
+    public void addAll(String[] items, long[] hashes, long[] counts, int n) {
+        engine.addAll(items, hashes, counts, n);
+    }
+
+    public long estimateCount(String item) {
+        return engine.estimateCount(item, MurmurHash.hashChars64(item));
+    }
+
+    public long estimateCount(String item, long hash) {
+        return engine.estimateCount(item, hash);
+    }
+
+    public void estimateCounts(String[] items, long[] hashes, int n, long[] counts) {
+        for (int j = 0; j < n; j++) {
+            counts[j] = engine.estimateCount(items[j], hashes[j]);
+        }
+    }
+
+    public List<WordCount> topK() {
+        return engine.topK();
+    }
+
+    public TopKSnapshot topKSnapshot() {
+        return published;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Snapshot the engine to the given store every snapshotEvery commits.
+     */
+    public void enableSnapshots(SketchSnapshotStore store, int snapshotEvery) {
+        if (snapshotEvery < 1) {
+            throw new IllegalArgumentException("Snapshot interval must be at least one commit: " + snapshotEvery);
+        }
+        this.snapshots = store;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    @Override
+    public void beginCommit(Long txid) {
+        version++;
+    }
+
+    @Override
+    public void commit(Long txid) {
+        version++;
+        published = TopKSnapshot.of(txid, engine.topK(), engine.size(), engine.errorBound());
+        if (snapshots != null && ++commitsSinceSnapshot >= snapshotEvery) {
+            commitsSinceSnapshot = 0;
+            long start = System.nanoTime();
+            byte[] payload = HeavyHitterSerializer.toBytes(engine);
+            if (serializeTime != null) {
+                serializeTime.record(System.nanoTime() - start);
+            }
+            snapshots.save(payload, txid);
+        }
+    }
+
+    /**
+     * Registers this partition's metrics under the same names as
+     * CountMinSketchState's: total count, error bound (-1 for engines
+     * without one, see HeavyHitterEngine.errorBound) and snapshot times,
+     * plus the engine's memory ("countmin.engine_bytes").
+     */
+    public void registerMetrics(IMetricsContext context, int bucketSecs) {
+        context.registerMetric("countmin.size", new IMetric() {
+            public Object getValueAndReset() {
+                return engine.size();
+            }
+        }, bucketSecs);
+        context.registerMetric("countmin.error_bound", new IMetric() {
+            public Object getValueAndReset() {
+                return engine.errorBound();
+            }
+        }, bucketSecs);
+        context.registerMetric("countmin.engine_bytes", new IMetric() {
+            public Object getValueAndReset() {
+                return engine.sizeInBytes();
+            }
+        }, bucketSecs);
+        if (snapshots != null) {
+            serializeTime = context.registerMetric("countmin.snapshot_serialize_ms", new SketchMetrics.Histogram(), bucketSecs);
+            context.registerMetric("countmin.snapshot_write_ms", new IMetric() {
+                public Object getValueAndReset() {
+                    return snapshots.getLastWriteMillis();
+                }
+            }, bucketSecs);
+        }
+    }
+}
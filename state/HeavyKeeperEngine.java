@@ -0,0 +1,256 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HeavyKeeper: depth rows of buckets, each holding the fingerprint of the
+ * word that owns it and that word's count, next to a Top-K list.
+ * HeavyKeeper: An Accurate Algorithm for Finding Top-k Elephant Flows
+ * (Gong et al.)
+ *
+ * A word adds to its bucket in every row where it owns the bucket or the
+ * bucket is empty. Where another word owns it, each occurrence decays the
+ * owner's count by one with probability DECAY^-count, and the word takes
+ * the bucket over once it reaches zero. Large counts almost never decay,
+ * so frequent words keep their buckets and the many rare words cannot
+ * inflate them: estimates (the largest count among a word's buckets)
+ * are at most the true count, except when two words share a fingerprint
+ * and a bucket.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class HeavyKeeperEngine implements HeavyHitterEngine {
+
+    static final double DECAY = 1.08;                                   // the paper's b
+    static final double[] DECAY_PROBABILITY;                             // DECAY^-count, until it is negligible
+    static {
+        List<Double> p = new ArrayList<Double>();
+        for (double q = 1; q > 1e-12; q /= DECAY) {
+            p.add(q);
+        }
+        DECAY_PROBABILITY = new double[p.size()];
+        for (int i = 0; i < DECAY_PROBABILITY.length; i++) {
+            DECAY_PROBABILITY[i] = p.get(i);
+        }
+    }
+    static final int BYTES_PER_BUCKET = 12;
+
+    private final int depth;
+    private final int width;                                            // a power of two
+    private final int mask;
+    private long salt;                                                  // from the seed, mixed into every hash
+    private final int[] fingerprints;                                   // row i is buckets [i * width, (i + 1) * width)
+    private final long[] counts;                                        // 0 for an empty bucket
+    private int k;
+    private TopKTracker topk;
+    private long size;
+    private long random;                                                // xorshift state of the decay draws
+
+    public HeavyKeeperEngine(int depth, int width, int seed, int k) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be positive: " + depth);
+        }
+        this.depth = depth;
+        this.width = CountMinSketchState.roundUpToPowerOfTwo(width);
+        this.mask = this.width - 1;
+        this.salt = MurmurHash.fmix64(seed + 0x9E3779B97F4A7C15L);
+        this.fingerprints = new int[depth * this.width];
+        this.counts = new long[depth * this.width];
+        this.k = k;
+        this.topk = new TopKTracker(k);
+        this.random = salt | 1;
+    }
+
+    public Type type() {
+        return Type.HEAVY_KEEPER;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void add(String item, long hash, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative increments not implemented");
+        }
+        if (count == 0) {
+            return;
+        }
+        long x = MurmurHash.fmix64(hash ^ salt);
+        int h1 = (int) x;
+        int h2 = (int) (x >>> 32) | 1;
+        int fingerprint = fingerprint(x);
+        long estimate = 0;
+        for (int i = 0, row = 0; i < depth; ++i, row += width) {
+            int b = row + ((h1 + i * h2) & mask);
+            long c = counts[b];
+            if (c == 0 || fingerprints[b] == fingerprint) {
+                fingerprints[b] = fingerprint;
+                c += count;
+            } else {
+                for (long left = count; left > 0 && c < DECAY_PROBABILITY.length; ) {
+                    left--;
+                    if (nextDouble() < DECAY_PROBABILITY[(int) c] && --c == 0) {
+                        fingerprints[b] = fingerprint;                  // taken over by this occurrence and the ones left
+                        c = left + 1;
+                        break;
+                    }
+                }
+            }
+            counts[b] = c;
+            if (fingerprints[b] == fingerprint) {
+                estimate = Math.max(estimate, c);
+            }
+        }
+        size += count;
+        if (estimate > 0) {
+            topk.offer(item, hash, estimate);
+        }
+    }
+
+    public void addAll(String[] items, long[] hashes, long[] counts, int n) {
+        for (int j = 0; j < n; j++) {
+            add(items[j], hashes[j], counts[j]);
+        }
+    }
+
+    public long estimateCount(String item, long hash) {
+        long x = MurmurHash.fmix64(hash ^ salt);
+        int h1 = (int) x;
+        int h2 = (int) (x >>> 32) | 1;
+        int fingerprint = fingerprint(x);
+        long estimate = 0;
+        for (int i = 0, row = 0; i < depth; ++i, row += width) {
+            int b = row + ((h1 + i * h2) & mask);
+            if (fingerprints[b] == fingerprint) {
+                estimate = Math.max(estimate, counts[b]);
+            }
+        }
+        return estimate;
+    }
+
+    public List<WordCount> topK() {
+        List<WordCount> words = new ArrayList<WordCount>(topk.size());
+        for (int i = 0; i < topk.size(); i++) {
+            words.add(new WordCount(topk.key(i), topk.count(i)));
+        }
+        return words;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * UNKNOWN_ERROR: estimates are at most the true count (barring
+     * fingerprint collisions), and decay can take them arbitrarily far
+     * below it.
+     */
+    public long errorBound() {
+        return UNKNOWN_ERROR;
+    }
+
+    public boolean canMerge(HeavyHitterEngine other) {
+        if (!(other instanceof HeavyKeeperEngine)) {
+            return false;
+        }
+        HeavyKeeperEngine that = (HeavyKeeperEngine) other;
+        return that.depth == depth && that.width == width && that.salt == salt;
+    }
+
+    /**
+     * Approximate: buckets owned by the same word (or empty on one side) are
+     * added; otherwise the larger owner keeps the bucket with the
+     * difference, which is what decaying one by the other would leave on
+     * average for large counts. The Top-K lists of both are re-ranked with
+     * the merged estimates.
+     */
+    public void merge(HeavyHitterEngine other) {
+        if (!canMerge(other)) {
+            throw new IllegalArgumentException("Cannot merge " + other.type() + " into a HeavyKeeper engine of " + depth + " x " + width);
+        }
+        HeavyKeeperEngine that = (HeavyKeeperEngine) other;
+        for (int b = 0; b < counts.length; b++) {
+            long theirs = that.counts[b];
+            if (theirs == 0) {
+                continue;
+            }
+            if (counts[b] == 0 || fingerprints[b] == that.fingerprints[b]) {
+                counts[b] += theirs;
+                fingerprints[b] = that.fingerprints[b];
+            } else if (theirs > counts[b]) {
+                counts[b] = theirs - counts[b];
+                fingerprints[b] = that.fingerprints[b];
+            } else {
+                counts[b] -= theirs;                                    // may empty the bucket
+            }
+        }
+        size += that.size;
+        List<WordCount> candidates = topK();
+        candidates.addAll(that.topK());
+        topk = new TopKTracker(k);
+        for (WordCount w : candidates) {
+            long hash = MurmurHash.hashChars64(w.word);
+            topk.offer(w.word, hash, estimateCount(w.word, hash));
+        }
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(depth);
+        out.writeInt(width);
+        out.writeLong(salt);
+        out.writeLong(size);
+        out.writeLong(random);
+        for (int b = 0; b < counts.length; b++) {
+            out.writeInt(fingerprints[b]);
+            out.writeLong(counts[b]);
+        }
+        HeavyHitterSerializer.writeWords(topk, out);
+    }
+
+    static HeavyKeeperEngine readFrom(DataInputStream in) throws IOException {
+        int depth = in.readInt();
+        int width = in.readInt();
+        HeavyHitterSerializer.checkCells(in, depth, width, BYTES_PER_BUCKET);
+        HeavyKeeperEngine engine = new HeavyKeeperEngine(depth, width, 0, 1);
+        engine.salt = in.readLong();
+        engine.size = in.readLong();
+        engine.random = in.readLong();
+        for (int b = 0; b < engine.counts.length; b++) {
+            engine.fingerprints[b] = in.readInt();
+            engine.counts[b] = in.readLong();
+            if (engine.counts[b] < 0) {
+                throw new IOException("Corrupt HeavyKeeper count " + engine.counts[b]);
+            }
+        }
+        engine.topk = HeavyHitterSerializer.readWords(in);
+        engine.k = engine.topk.capacity();
+        return engine;
+    }
+
+    public long sizeInBytes() {
+        return (long) BYTES_PER_BUCKET * counts.length + topk.sizeInBytes();
+    }
+
+    private double nextDouble() {
+        long x = random;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        random = x;
+        return (x >>> 11) * 0x1.0p-53;
+    }
+
+    // bits of the word's hash that are independent of its buckets
+    private static int fingerprint(long x) {
+        return (int) (MurmurHash.fmix64(x) >>> 32);
+    }
+}
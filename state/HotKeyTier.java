@@ -0,0 +1,197 @@
+package storm.starter.trident.project.countmin.state;
+
+/**
+ * Exact counts for the most frequent words of a CountMinSketchState, kept
+ * in front of its table.
+ *
+ * A few tokens ("rt", "-", ":") make up a large share of a tweet stream.
+ * Once such a word is hot it is counted here instead of in depth cells, in
+ * one probe of a small open-addressing table. Its estimate is base +
+ * delta: the sketch estimate it had when it was promoted (an upper bound of
+ * its count until then, frozen) plus its exact count since, so the heaviest
+ * words are counted without collision error from then on. Other words
+ * hashing to its cells no longer see its new counts, so their estimates are
+ * a little tighter too. The hot words' cells stay in cache anyway, so the
+ * tier is about accuracy more than speed; see SketchBenchmarks
+ * ("countmin.hotkeys").
+ *
+ * A word is promoted when its sketch estimate exceeds the smallest hot
+ * total (or while the tier has room). That word is demoted to make room,
+ * and its delta is written into its cells, so its sketch estimate stays
+ * an upper bound of everything it was counted. checkpoint writes all
+ * deltas into the cells and keeps the words hot, for snapshots.
+ *
+ * Words live directly in the slots; deletion shifts entries back, so the
+ * table needs no tombstones.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+final class HotKeyTier {
+
+    private final int capacity;
+    private final String[] keys;                                        // null for an empty slot
+    private final long[] hashes;
+    private final long[] bases;
+    private final long[] deltas;
+    private final int mask;
+    private int size;
+
+    private int minSlot = -1;                                           // slot of the smallest total
+    private boolean minStale = true;                                    // minSlot must be looked up again
+    private long served;                                                // count added through the tier
+
+    HotKeyTier(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Hot-key capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;       // load factor stays at or below 1/2
+        keys = new String[slots];
+        hashes = new long[slots];
+        bases = new long[slots];
+        deltas = new long[slots];
+        mask = slots - 1;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Total count added to hot words since the tier was created. */
+    long served() {
+        return served;
+    }
+
+    /**
+     * Adds count to a hot word.
+     *
+     * @return its new estimate, or -1 if the word is not hot
+     */
+    long add(String key, long hash, long count) {
+        int slot = find(key, hash);
+        if (slot < 0) {
+            return -1;
+        }
+        deltas[slot] += count;
+        served += count;
+        if (slot == minSlot) {
+            minStale = true;
+        }
+        return bases[slot] + deltas[slot];
+    }
+
+    /** Estimate of a hot word, or -1 if the word is not hot. */
+    long estimate(String key, long hash) {
+        int slot = find(key, hash);
+        return slot >= 0 ? bases[slot] + deltas[slot] : -1;
+    }
+
+    /** Whether a word of this sketch estimate should be promoted. */
+    boolean admits(long estimate) {
+        return size < capacity || estimate > total(minSlot());
+    }
+
+    /**
+     * Makes a word hot from its current sketch estimate on. If the tier is
+     * full, the word with the smallest total is demoted first and its
+     * delta written into the sketch.
+     */
+    void promote(CountMinSketchState sketch, String key, long hash, long estimate) {
+        if (size == capacity) {
+            int demoted = minSlot();
+            sketch.addToCells(hashes[demoted], deltas[demoted]);
+            remove(demoted);
+        }
+        int slot = (int) (hash ^ (hash >>> 29)) & mask;
+        while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        hashes[slot] = hash;
+        bases[slot] = estimate;
+        deltas[slot] = 0;
+        size++;
+        minStale = true;
+    }
+
+    /** Adds every hot word's delta to its cells in the given sketch. */
+    void addDeltasTo(CountMinSketchState sketch) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != null && deltas[slot] != 0) {
+                sketch.addToCells(hashes[slot], deltas[slot]);
+            }
+        }
+    }
+
+    /**
+     * Writes every delta into the sketch the tier belongs to and folds it
+     * into the base, so the cells hold all counts and estimates are
+     * unchanged.
+     */
+    void checkpoint(CountMinSketchState sketch) {
+        addDeltasTo(sketch);
+        for (int slot = 0; slot < keys.length; slot++) {
+            bases[slot] += deltas[slot];
+            deltas[slot] = 0;
+        }
+    }
+
+    void clear() {
+        for (int slot = 0; slot < keys.length; slot++) {
+            keys[slot] = null;
+            bases[slot] = 0;
+            deltas[slot] = 0;
+        }
+        size = 0;
+        minStale = true;
+    }
+
+    private long total(int slot) {
+        return bases[slot] + deltas[slot];
+    }
+
+    // slot of the smallest total, looked up again only after it may have changed
+    private int minSlot() {
+        if (minStale) {
+            minSlot = -1;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != null && (minSlot < 0 || total(slot) < total(minSlot))) {
+                    minSlot = slot;
+                }
+            }
+            minStale = false;
+        }
+        return minSlot;
+    }
+
+    private int find(String key, long hash) {
+        for (int slot = (int) (hash ^ (hash >>> 29)) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && keys[slot].equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // Backward-shift deletion keeps linear probing free of tombstones.
+    private void remove(int hole) {
+        for (int probe = (hole + 1) & mask; keys[probe] != null; probe = (probe + 1) & mask) {
+            int home = (int) (hashes[probe] ^ (hashes[probe] >>> 29)) & mask;
+            // move the entry into the hole unless its home lies cyclically in (hole, probe]
+            if (((probe - home) & mask) >= ((probe - hole) & mask)) {
+                keys[hole] = keys[probe];
+                hashes[hole] = hashes[probe];
+                bases[hole] = bases[probe];
+                deltas[hole] = deltas[probe];
+                hole = probe;
+            }
+        }
+        keys[hole] = null;
+        size--;
+        minStale = true;
+    }
+}
@@ -0,0 +1,226 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LONG counter table in a memory-mapped file, which is its own persistent
+ * copy: counters are updated in place in the page cache, and a restarted
+ * worker re-maps the file instead of deserializing a snapshot.
+ *
+ * <pre>
+ * magic      4 bytes  "CMSM"
+ * version    4 bytes
+ * depth      4 bytes
+ * width      4 bytes
+ * stride     4 bytes
+ * partitions 4 bytes
+ * txid       8 bytes  last committed batch
+ * size       8 bytes  total count as of that batch
+ * seeds      depth x 8 bytes
+ * padding    to a multiple of 64 bytes
+ * cells      depth x stride x 8 bytes
+ * </pre>
+ * all little-endian. The Top-K list, being small and of variable length,
+ * is kept next to it in "&lt;file&gt;.topk".
+ *
+ * Every commit records txid and size in the header. Every syncEvery
+ * commits the Top-K list is rewritten and the mapping is forced to disk,
+ * which is what survives a machine (rather than worker) crash. Counts of a
+ * batch that was being applied when the worker died are already in the
+ * cells when Trident replays the batch, so they may be counted twice:
+ * estimates stay upper bounds, only a little looser.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class MappedCounterTable extends OffHeapCounterTable {
+
+    static final int MAGIC = 0x434d534d;                                 // "CMSM"
+    static final int VERSION = 1;
+    private static final int PARTITIONS = 20;
+    private static final int TXID = 24;
+    private static final int SIZE = 32;
+    private static final int SEEDS = 40;
+
+    private final File file;
+    private final MappedByteBuffer mapped;
+    private final boolean reopened;
+    private final int syncEvery;
+    private int commitsSinceSync;
+    private long lastSyncNanos;
+
+    private MappedCounterTable(File file, MappedByteBuffer mapped, int header, boolean reopened, int syncEvery) {
+        super(positioned(mapped, header));
+        this.file = file;
+        this.mapped = mapped;
+        this.reopened = reopened;
+        this.syncEvery = syncEvery;
+    }
+
+    private static MappedByteBuffer positioned(MappedByteBuffer mapped, int header) {
+        mapped.position(header);
+        return mapped;
+    }
+
+    /**
+     * Maps the file, creating it if needed. If it holds a table of the same
+     * shape, seeds and number of partitions its counts are kept (see
+     * isReopened()); otherwise it is reset to an empty table.
+     *
+     * @param syncEvery force the mapping to disk every this many commits
+     */
+    public static MappedCounterTable open(File file, int depth, int width, int stride, long[] hashA,
+                                          int partitions, int syncEvery) throws IOException {
+        if (syncEvery < 1) {
+            throw new IllegalArgumentException("Sync interval must be at least one commit: " + syncEvery);
+        }
+        int header = (SEEDS + 8 * depth + 63) & ~63;
+        int bytes = checkedBytes(depth * stride, header);
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean reopened = raf.length() == bytes;
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);    // stays valid after the channel is closed
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            reopened = reopened && sameTable(mapped, depth, width, stride, hashA, partitions);
+            MappedCounterTable table = new MappedCounterTable(file, mapped, header, reopened, syncEvery);
+            if (!reopened) {
+                table.clear();
+                mapped.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, depth).putInt(12, width).putInt(16, stride);
+                mapped.putInt(PARTITIONS, partitions).putLong(TXID, -1).putLong(SIZE, 0);
+                for (int i = 0; i < depth; i++) {
+                    mapped.putLong(SEEDS + 8 * i, hashA[i]);
+                }
+                new File(file.getPath() + ".topk").delete();
+                mapped.force();
+            }
+            return table;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static boolean sameTable(MappedByteBuffer mapped, int depth, int width, int stride, long[] hashA, int partitions) {
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION || mapped.getInt(8) != depth
+                || mapped.getInt(12) != width || mapped.getInt(16) != stride || mapped.getInt(PARTITIONS) != partitions) {
+            return false;
+        }
+        for (int i = 0; i < depth; i++) {
+            if (mapped.getLong(SEEDS + 8 * i) != hashA[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** True if the counts of a previous run were kept when the file was mapped. */
+    public boolean isReopened() {
+        return reopened;
+    }
+
+    /** Last committed transaction id, -1 if none. */
+    public long getTxid() {
+        return mapped.getLong(TXID);
+    }
+
+    /** Total count as of the last commit. */
+    public long getSize() {
+        return mapped.getLong(SIZE);
+    }
+
+    /** Time the last sync took, in milliseconds. */
+    public double getLastSyncMillis() {
+        return lastSyncNanos / 1e6;
+    }
+
+    /**
+     * Records a commit, and every syncEvery commits saves the Top-K list and
+     * forces the counters to disk.
+     */
+    public void commit(long txid, long size, List<WordCount> topK) {
+        mapped.putLong(TXID, txid).putLong(SIZE, size);
+        if (++commitsSinceSync >= syncEvery) {
+            commitsSinceSync = 0;
+            long start = System.nanoTime();
+            try {
+                saveTopK(topK);
+            } catch (IOException e) {
+                System.err.println("Saving the CountMin Top-K list next to " + file + " failed: " + e);
+            }
+            mapped.force();
+            lastSyncNanos = System.nanoTime() - start;
+        }
+    }
+
+    /** The Top-K list of the last sync, empty if there is none. */
+    public List<WordCount> loadTopK() throws IOException {
+        List<WordCount> topK = new ArrayList<WordCount>();
+        File saved = new File(file.getPath() + ".topk");
+        if (!reopened || !saved.isFile()) {
+            return topK;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(saved)));
+        try {
+            for (int n = in.readInt(); n > 0; n--) {
+                String word = in.readUTF();
+                topK.add(new WordCount(word, in.readLong()));
+            }
+        } finally {
+            in.close();
+        }
+        return topK;
+    }
+
+    // written to a temporary file renamed over the previous list, so a crash leaves one of them whole
+    private void saveTopK(List<WordCount> topK) throws IOException {
+        File saved = new File(file.getPath() + ".topk");
+        File tmp = new File(file.getPath() + ".topk.tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(topK.size());
+            for (WordCount w : topK) {
+                out.writeUTF(w.word);
+                out.writeLong(w.count);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        if (!tmp.renameTo(saved)) {
+            // renameTo does not replace an existing file on every platform
+            if (!saved.delete() || !tmp.renameTo(saved)) {
+                throw new IOException("Cannot replace " + saved);
+            }
+        }
+    }
+
+    /**
+     * Not supported: the file has the shape it was created with.
+     */
+    @Override
+    public CounterTable emptyLike(int cells) {
+        throw new UnsupportedOperationException("A memory-mapped counter table cannot be resized: " + file);
+    }
+}
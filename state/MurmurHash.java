@@ -218,4 +218,109 @@ public class MurmurHash {
 
         return h;
     }
+
+    /**
+     * Generates a 64 bit hash directly from the chars of a CharSequence,
+     * without encoding it to bytes first. Four chars are mixed per step with
+     * the MurmurHash3 x64 constants and the result goes through the
+     * MurmurHash3 finalizer, so all 64 bits are well distributed.
+     *
+     * @param s chars to hash
+     * @return 64 bit hash of the given chars
+     */
+    public static long hashChars64(CharSequence s) {
+        return hashChars64(s, 0, s.length());
+    }
+
+    /**
+     * Generates a 64 bit hash from the chars s[from, to).
+     */
+    public static long hashChars64(CharSequence s, int from, int to) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        final int length = to - from;
+
+        long h = 0x9368e53c2f6af274L;
+        int end4 = from + (length & ~3);
+        int i = from;
+        for (; i < end4; i += 4) {
+            long k = s.charAt(i) | ((long) s.charAt(i + 1) << 16)
+                     | ((long) s.charAt(i + 2) << 32) | ((long) s.charAt(i + 3) << 48);
+            k *= c1;
+            k = Long.rotateLeft(k, 31);
+            k *= c2;
+
+            h ^= k;
+            h = Long.rotateLeft(h, 27);
+            h = h * 5 + 0x52dce729;
+        }
+
+        long k = 0;
+        switch (to - i) {
+            case 3:
+                k ^= (long) s.charAt(i + 2) << 32;
+            case 2:
+                k ^= (long) s.charAt(i + 1) << 16;
+            case 1:
+                k ^= s.charAt(i);
+                k *= c1;
+                k = Long.rotateLeft(k, 31);
+                k *= c2;
+                h ^= k;
+        }
+
+        h ^= length;
+        return fmix64(h);
+    }
+
+    /**
+     * Generates a 64 bit hash from the chars buf[from, to); equal to
+     * hashChars64 of a CharSequence holding the same chars.
+     */
+    public static long hashChars64(char[] buf, int from, int to) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        final int length = to - from;
+
+        long h = 0x9368e53c2f6af274L;
+        int end4 = from + (length & ~3);
+        int i = from;
+        for (; i < end4; i += 4) {
+            long k = buf[i] | ((long) buf[i + 1] << 16)
+                     | ((long) buf[i + 2] << 32) | ((long) buf[i + 3] << 48);
+            k *= c1;
+            k = Long.rotateLeft(k, 31);
+            k *= c2;
+
+            h ^= k;
+            h = Long.rotateLeft(h, 27);
+            h = h * 5 + 0x52dce729;
+        }
+
+        long k = 0;
+        switch (to - i) {
+            case 3:
+                k ^= (long) buf[i + 2] << 32;
+            case 2:
+                k ^= (long) buf[i + 1] << 16;
+            case 1:
+                k ^= buf[i];
+                k *= c1;
+                k = Long.rotateLeft(k, 31);
+                k *= c2;
+                h ^= k;
+        }
+
+        h ^= length;
+        return fmix64(h);
+    }
+
+    static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
 }
@@ -0,0 +1,89 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * LONG counter table outside the Java heap, in a direct ByteBuffer. A
+ * sketch of tens of millions of cells kept in a long[] is a large object
+ * the collector has to mark and, in the old generation, copy or compact;
+ * off-heap it costs the collector nothing.
+ *
+ * Tables are limited to 2^31 - 1 bytes, about 268 million cells.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class OffHeapCounterTable extends CounterTable {
+
+    private static final long MAX_BYTES = Integer.MAX_VALUE;
+    private static final long[] ZEROS = new long[4096];
+
+    final LongBuffer cells;
+
+    /**
+     * @param buffer the cells start at its position and take the rest of it
+     */
+    OffHeapCounterTable(ByteBuffer buffer) {
+        this.cells = buffer.slice().order(buffer.order()).asLongBuffer();
+    }
+
+    /** An empty table of the given number of cells, in native byte order. */
+    public static OffHeapCounterTable allocate(int cells) {
+        return new OffHeapCounterTable(ByteBuffer.allocateDirect(checkedBytes(cells, 0)).order(ByteOrder.nativeOrder()));
+    }
+
+    // bytes of the given number of cells after a header, if they fit in one buffer
+    static int checkedBytes(int cells, int header) {
+        long bytes = header + 8L * cells;
+        if (cells < 0 || bytes > MAX_BYTES) {
+            throw new IllegalArgumentException("Too many cells for one off-heap table: " + cells);
+        }
+        return (int) bytes;
+    }
+
+    public Kind kind() {
+        return Kind.LONG;
+    }
+
+    public int cells() {
+        return cells.capacity();
+    }
+
+    public long get(int i) {
+        return cells.get(i);
+    }
+
+    public long add(int i, long delta) {
+        long v = cells.get(i) + delta;
+        cells.put(i, v);
+        return v;
+    }
+
+    public boolean set(int i, long value) {
+        cells.put(i, value);
+        return true;
+    }
+
+    public void clear() {
+        LongBuffer all = cells.duplicate();
+        all.clear();
+        while (all.hasRemaining()) {
+            all.put(ZEROS, 0, Math.min(ZEROS.length, all.remaining()));
+        }
+    }
+
+    public long sizeInBytes() {
+        return 8L * cells.capacity();
+    }
+
+    @Override
+    public CounterTable emptyLike(int cells) {
+        return allocate(cells);
+    }
+
+    @Override
+    public CounterTable widen() {
+        return this;
+    }
+}
@@ -0,0 +1,123 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * Metric types used by the CountMin state, its updater and the stop-word
+ * filters, on top of Storm's built-in ones. Like every IMetric they are
+ * updated and read on the executor thread, so they need no locking.
+ *
+ * All of them are registered with the time bucket given by the topology
+ * setting "countmin.metrics.seconds" (60 by default).
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public final class SketchMetrics {
+
+    public static final String BUCKET_SECS_CONF = "countmin.metrics.seconds";
+    public static final int DEFAULT_BUCKET_SECS = 60;
+
+    private SketchMetrics() {
+    }
+
+    /** The metrics time bucket of the topology configuration. */
+    public static int bucketSecs(Map conf) {
+        Object secs = conf != null ? conf.get(BUCKET_SECS_CONF) : null;
+        return secs instanceof Number ? ((Number) secs).intValue() : DEFAULT_BUCKET_SECS;
+    }
+
+    /**
+     * Events per second since the last report.
+     */
+    public static class Rate implements IMetric {
+        private long count;
+        private long since = System.nanoTime();
+
+        public void incrBy(long n) {
+            count += n;
+        }
+
+        public Object getValueAndReset() {
+            long now = System.nanoTime();
+            double rate = now > since ? count * 1e9 / (now - since) : 0;
+            count = 0;
+            since = now;
+            return rate;
+        }
+    }
+
+    /**
+     * Fraction of the events since the last report that were hits, or null
+     * if there were none.
+     */
+    public static class Ratio implements IMetric {
+        private long hits;
+        private long total;
+
+        public void record(boolean hit) {
+            total++;
+            if (hit) {
+                hits++;
+            }
+        }
+
+        public Object getValueAndReset() {
+            Object ratio = total > 0 ? (Object) ((double) hits / total) : null;
+            hits = 0;
+            total = 0;
+            return ratio;
+        }
+    }
+
+    /**
+     * Distribution of durations since the last report, kept in power-of-two
+     * microsecond buckets. Reports count, mean, p50, p99 and max in
+     * milliseconds; the quantiles are bucket upper bounds, so within a
+     * factor of two.
+     */
+    public static class Histogram implements IMetric {
+        private final long[] buckets = new long[64];                    // bucket i: [2^(i-1), 2^i) us, bucket 0: under 1 us
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        public void record(long nanos) {
+            buckets[64 - Long.numberOfLeadingZeros(Math.max(nanos, 0) / 1000)]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        public Object getValueAndReset() {
+            Map<String, Object> value = new LinkedHashMap<String, Object>();
+            value.put("count", count);
+            if (count > 0) {
+                value.put("mean_ms", totalNanos / 1e6 / count);
+                value.put("p50_ms", quantileMillis(0.5));
+                value.put("p99_ms", quantileMillis(0.99));
+                value.put("max_ms", maxNanos / 1e6);
+            }
+            Arrays.fill(buckets, 0);
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+            return value;
+        }
+
+        private double quantileMillis(double quantile) {
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min((1L << i) / 1e3, maxNanos / 1e6);
+                }
+            }
+            return maxNanos / 1e6;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the latest snapshot of one CountMin partition in a local file, so a
+ * restarted worker can reload its counts and Top-K list instead of starting
+ * cold.
+ *
+ * The file is "countmin-&lt;partition&gt;.snapshot" in the given directory:
+ * a header (magic, version, txid, number of partitions, payload length)
+ * followed by a CountMinSketchState.serialize payload. Snapshots are
+ * written through a FileChannel on a background thread, to a temporary file
+ * that is then renamed over the previous one, so a crash mid-write leaves
+ * the last complete snapshot in place. If snapshots come in faster than
+ * they can be written, only the newest pending one is kept.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class SketchSnapshotStore {
+
+    static final int MAGIC = 0x434d5353;                                 // "CMSS"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+
+    private final File file;
+    private final File tmp;
+    private final int numPartitions;
+
+    private final AtomicReference<Pending> pending = new AtomicReference<Pending>();
+    private final ExecutorService writer;
+
+    private volatile long lastTxid = -1;
+    private volatile long lastWriteNanos;
+
+    public SketchSnapshotStore(File directory, int partitionIndex, int numPartitions) {
+        this(directory, "countmin", partitionIndex, numPartitions);
+    }
+
+    /**
+     * A store for "&lt;name&gt;-&lt;partition&gt;.snapshot", e.g. for the
+     * snapshots of a HeavyHitterState, which are read with loadPayload.
+     */
+    public SketchSnapshotStore(File directory, String name, int partitionIndex, int numPartitions) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create snapshot directory " + directory);
+        }
+        this.file = new File(directory, name + "-" + partitionIndex + ".snapshot");
+        this.tmp = new File(directory, name + "-" + partitionIndex + ".snapshot.tmp");
+        this.numPartitions = numPartitions;
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "countmin-snapshot-" + file.getName());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** Transaction id of the last snapshot written or loaded, -1 if none. */
+    public long getLastTxid() {
+        return lastTxid;
+    }
+
+    /** Time the last snapshot took to write and sync, in milliseconds. */
+    public double getLastWriteMillis() {
+        return lastWriteNanos / 1e6;
+    }
+
+    /**
+     * Reads the last snapshot of this partition.
+     *
+     * @return the restored sketch, or null if there is no snapshot or it was
+     *         taken with a different number of partitions (words would now be
+     *         owned by other partitions)
+     * @throws IOException if the snapshot exists but cannot be read or
+     *         decoded (e.g. it is corrupt or was cut short)
+     */
+    public CountMinSketchState load() throws IOException {
+        byte[] payload = loadPayload();
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return CountMinSketchState.deserialize(payload);
+        } catch (RuntimeException e) {
+            throw new IOException("Cannot decode CountMin snapshot " + file, e);
+        }
+    }
+
+    /**
+     * load without deserializing: the payload of the last snapshot, or null
+     * if there is none or it was taken with a different number of
+     * partitions.
+     */
+    public byte[] loadPayload() throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a CountMin snapshot: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + file);
+            }
+            long txid = header.getLong();
+            int partitions = header.getInt();
+            int length = header.getInt();
+            if (partitions != numPartitions) {
+                return null;
+            }
+            if (length < 0 || length > channel.size() - HEADER_BYTES) {
+                throw new IOException("Snapshot " + file + " claims " + length + " bytes of payload, has " + (channel.size() - HEADER_BYTES));
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload);
+            lastTxid = txid;
+            return payload.array();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Queues a serialized sketch to be written in the background.
+     */
+    public void save(byte[] payload, long txid) {
+        if (pending.getAndSet(new Pending(payload, txid)) == null) {
+            writer.execute(new Runnable() {
+                public void run() {
+                    Pending next = pending.getAndSet(null);
+                    if (next != null) {
+                        try {
+                            write(next);
+                        } catch (IOException e) {
+                            System.err.println("CountMin snapshot to " + file + " failed: " + e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the snapshot synchronously, replacing any queued one.
+     */
+    public void saveNow(byte[] payload, long txid) throws IOException {
+        pending.set(null);
+        write(new Pending(payload, txid));
+    }
+
+    private synchronized void write(Pending snapshot) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(snapshot.txid).putInt(numPartitions).putInt(snapshot.payload.length);
+        header.flip();
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer[] buffers = {header, ByteBuffer.wrap(snapshot.payload)};
+            while (buffers[1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // renameTo does not replace an existing file on every platform
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        }
+        lastTxid = snapshot.txid;
+        lastWriteNanos = System.nanoTime() - start;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Truncated snapshot");
+            }
+        }
+    }
+
+    private static final class Pending {
+        final byte[] payload;
+        final long txid;
+
+        Pending(byte[] payload, long txid) {
+            this.payload = payload;
+            this.txid = txid;
+        }
+    }
+}
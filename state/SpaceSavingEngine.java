@@ -0,0 +1,381 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Space-Saving: counters for a fixed number of words, and no sketch.
+ * Efficient Computation of Frequent and Top-k Elements in Data Streams
+ * (Metwally, Agrawal, El Abbadi)
+ *
+ * A counted word adds to its counter. Any other word takes over a smallest
+ * counter and adds to it, so a count is never below the true count and
+ * exceeds it by at most the smallest counter, which is at most
+ * size / capacity. Every word with more than that is counted.
+ *
+ * The counters are kept in a stream-summary: a list of buckets in
+ * ascending count order, each holding the list of words with that count.
+ * Raising a count moves the word to the bucket of its new count, found by
+ * walking up from its current one, and a newcomer takes a word of the
+ * first bucket. Batches arrive collapsed into (word, count) pairs, so a
+ * word may skip several buckets, but most words are rare and move next to
+ * the bottom, where the walk is short. Top-K walks down from the last
+ * bucket. Everything is in primitive arrays indexed by entry and bucket
+ * number, with an open-addressing index from word to entry.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class SpaceSavingEngine implements HeavyHitterEngine {
+
+    static final int BYTES_PER_WORD = 120;                              // entry, bucket, index and a short word, for sizing
+
+    private final int capacity;
+    private final int k;
+    private long size;
+
+    // entries: a word, its bucket and its neighbours in the bucket (-1 for none)
+    private final String[] keys;
+    private final long[] hashes;
+    private final int[] bucketOf;
+    private final int[] prev;
+    private final int[] next;
+    private int entries;
+
+    // buckets: a count, its first entry and its neighbours in ascending count order (-1 for none)
+    private final long[] counts;
+    private final int[] first;
+    private final int[] lower;
+    private final int[] higher;
+    private int head = -1;                                              // smallest count
+    private int tail = -1;                                              // largest count
+    private int freeBuckets = -1;                                       // unused buckets, linked through higher
+
+    // open-addressing index: entry + 1, or 0 for an empty slot
+    private final int[] index;
+    private final int indexMask;
+
+    /**
+     * @param capacity number of words counted; the error bound is size / capacity
+     * @param k        number of words reported by topK
+     */
+    public SpaceSavingEngine(int capacity, int k) {
+        if (k < 1 || capacity < k) {
+            throw new IllegalArgumentException("Space-Saving needs at least k = " + k + " counters: " + capacity);
+        }
+        this.capacity = capacity;
+        this.k = k;
+        keys = new String[capacity];
+        hashes = new long[capacity];
+        bucketOf = new int[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        counts = new long[capacity + 1];                                // a word's new bucket is made before its old one is freed
+        first = new int[capacity + 1];
+        lower = new int[capacity + 1];
+        higher = new int[capacity + 1];
+        for (int b = capacity; b >= 0; b--) {
+            higher[b] = freeBuckets;
+            freeBuckets = b;
+        }
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;  // load factor stays at or below 1/2
+        index = new int[indexSize];
+        indexMask = indexSize - 1;
+    }
+
+    public Type type() {
+        return Type.SPACE_SAVING;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void add(String item, long hash, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative increments not implemented");
+        }
+        if (count == 0) {
+            return;
+        }
+        size += count;
+        int e = find(item, hash);
+        if (e >= 0) {
+            raise(e, counts[bucketOf[e]] + count);
+        } else if (entries < capacity) {
+            e = entries++;
+            keys[e] = item;
+            hashes[e] = hash;
+            insertSlot(e);
+            attach(e, bucketFor(-1, count));
+        } else {
+            e = first[head];                                            // take over a smallest counter
+            removeSlot(e);
+            keys[e] = item;
+            hashes[e] = hash;
+            insertSlot(e);
+            raise(e, counts[head] + count);
+        }
+    }
+
+    public void addAll(String[] items, long[] hashes, long[] counts, int n) {
+        for (int j = 0; j < n; j++) {
+            add(items[j], hashes[j], counts[j]);
+        }
+    }
+
+    /** The word's counter, or the smallest counter if it has none. */
+    public long estimateCount(String item, long hash) {
+        int e = find(item, hash);
+        return e >= 0 ? counts[bucketOf[e]] : minCount();
+    }
+
+    /** The k largest counters, walking down from the largest bucket. */
+    public List<WordCount> topK() {
+        List<WordCount> words = new ArrayList<WordCount>(Math.min(k, entries));
+        for (int b = tail; b >= 0 && words.size() < k; b = lower[b]) {
+            for (int e = first[b]; e >= 0 && words.size() < k; e = next[e]) {
+                words.add(new WordCount(keys[e], counts[b]));
+            }
+        }
+        return words;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /** The smallest counter once all are in use: no count exceeds the truth by more. */
+    public long errorBound() {
+        return minCount();
+    }
+
+    public boolean canMerge(HeavyHitterEngine other) {
+        return other instanceof SpaceSavingEngine && ((SpaceSavingEngine) other).capacity == capacity;
+    }
+
+    /**
+     * Merges as in Mergeable Summaries (Agarwal et al.): a word missing
+     * from one side is counted with that side's smallest counter, and the
+     * capacity largest sums are kept. Counts stay upper bounds, and the
+     * error bound is at most the sum of both.
+     */
+    public void merge(HeavyHitterEngine other) {
+        if (!canMerge(other)) {
+            throw new IllegalArgumentException("Cannot merge " + other.type() + " into a Space-Saving engine of " + capacity + " counters");
+        }
+        SpaceSavingEngine that = (SpaceSavingEngine) other;
+        long ourMin = minCount();
+        long theirMin = that.minCount();
+        List<WordCount> merged = new ArrayList<WordCount>(entries + that.entries);
+        for (int e = 0; e < entries; e++) {
+            int theirs = that.find(keys[e], hashes[e]);
+            merged.add(new WordCount(keys[e], counts[bucketOf[e]] + (theirs >= 0 ? that.counts[that.bucketOf[theirs]] : theirMin)));
+        }
+        for (int e = 0; e < that.entries; e++) {
+            if (find(that.keys[e], that.hashes[e]) < 0) {
+                merged.add(new WordCount(that.keys[e], that.counts[that.bucketOf[e]] + ourMin));
+            }
+        }
+        long total = size + that.size;
+        load(merged);
+        size = total;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(capacity);
+        out.writeInt(k);
+        out.writeLong(size);
+        out.writeInt(entries);
+        for (int e = 0; e < entries; e++) {
+            out.writeUTF(keys[e]);
+            out.writeLong(counts[bucketOf[e]]);
+        }
+    }
+
+    static SpaceSavingEngine readFrom(DataInputStream in) throws IOException {
+        int capacity = in.readInt();
+        int k = in.readInt();
+        // the counters are allocated for the capacity, not just the words saved: no more than the heap can hold
+        if (k < 1 || capacity < k || capacity > Runtime.getRuntime().maxMemory() / BYTES_PER_WORD) {
+            throw new IOException("Corrupt Space-Saving engine of " + capacity + " counters for k = " + k);
+        }
+        long size = in.readLong();
+        int n = in.readInt();
+        if (size < 0 || n < 0 || n > capacity || 10L * n > in.available()) {
+            throw new IOException("Space-Saving engine of " + capacity + " counters saved with " + n + " words");
+        }
+        SpaceSavingEngine engine = new SpaceSavingEngine(capacity, k);
+        List<WordCount> words = new ArrayList<WordCount>(n);
+        for (int i = 0; i < n; i++) {
+            String word = in.readUTF();
+            long count = in.readLong();
+            if (count < 0) {
+                throw new IOException("Corrupt Space-Saving count " + count);
+            }
+            words.add(new WordCount(word, count));
+        }
+        engine.load(words);
+        engine.size = size;
+        return engine;
+    }
+
+    public long sizeInBytes() {
+        long bytes = 24L * capacity + 20L * (capacity + 1) + 4L * index.length;
+        for (int e = 0; e < entries; e++) {
+            bytes += 40 + 2L * keys[e].length();                        // String and its chars
+        }
+        return bytes;
+    }
+
+    // smallest counter, or 0 while not all counters are in use
+    private long minCount() {
+        return entries < capacity ? 0 : counts[head];
+    }
+
+    // replaces the counters with the capacity largest of the given words
+    private void load(List<WordCount> words) {
+        Collections.sort(words, TopKCombiner.BY_COUNT_DESC);
+        List<WordCount> kept = words.subList(0, Math.min(words.size(), capacity));
+        Arrays.fill(index, 0);
+        for (int b = 0; b <= capacity; b++) {
+            higher[b] = b < capacity ? b + 1 : -1;
+        }
+        freeBuckets = 0;
+        head = tail = -1;
+        entries = 0;
+        size = 0;
+        for (int i = kept.size() - 1; i >= 0; i--) {                    // ascending, so every bucket is appended at the top
+            WordCount w = kept.get(i);
+            int e = entries++;
+            keys[e] = w.word;
+            hashes[e] = MurmurHash.hashChars64(w.word);
+            insertSlot(e);
+            attach(e, tail >= 0 && counts[tail] == w.count ? tail : bucketFor(tail, w.count));
+            size += w.count;
+        }
+        Arrays.fill(keys, entries, capacity, null);
+    }
+
+    // moves an entry to the bucket of its new, larger count
+    private void raise(int e, long count) {
+        int from = bucketOf[e];
+        detach(e);
+        attach(e, bucketFor(from, count));
+        if (first[from] < 0) {
+            freeBucket(from);
+        }
+    }
+
+    // the bucket of the given count, made if needed, searching upwards from above bucket from (-1: from the bottom)
+    private int bucketFor(int from, long count) {
+        int below = from;
+        int b = from >= 0 ? higher[from] : head;
+        while (b >= 0 && counts[b] < count) {
+            below = b;
+            b = higher[b];
+        }
+        if (b >= 0 && counts[b] == count) {
+            return b;
+        }
+        int made = freeBuckets;
+        freeBuckets = higher[made];
+        counts[made] = count;
+        first[made] = -1;
+        lower[made] = below;
+        higher[made] = b;
+        if (below >= 0) {
+            higher[below] = made;
+        } else {
+            head = made;
+        }
+        if (b >= 0) {
+            lower[b] = made;
+        } else {
+            tail = made;
+        }
+        return made;
+    }
+
+    private void freeBucket(int b) {
+        if (lower[b] >= 0) {
+            higher[lower[b]] = higher[b];
+        } else {
+            head = higher[b];
+        }
+        if (higher[b] >= 0) {
+            lower[higher[b]] = lower[b];
+        } else {
+            tail = lower[b];
+        }
+        higher[b] = freeBuckets;
+        freeBuckets = b;
+    }
+
+    private void attach(int e, int b) {
+        bucketOf[e] = b;
+        prev[e] = -1;
+        next[e] = first[b];
+        if (first[b] >= 0) {
+            prev[first[b]] = e;
+        }
+        first[b] = e;
+    }
+
+    private void detach(int e) {
+        if (prev[e] >= 0) {
+            next[prev[e]] = next[e];
+        } else {
+            first[bucketOf[e]] = next[e];
+        }
+        if (next[e] >= 0) {
+            prev[next[e]] = prev[e];
+        }
+    }
+
+    private int find(String key, long hash) {
+        for (int slot = slotFor(hash); ; slot = (slot + 1) & indexMask) {
+            int entry = index[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int e = entry - 1;
+            if (hashes[e] == hash && keys[e].equals(key)) {
+                return e;
+            }
+        }
+    }
+
+    private int slotFor(long hash) {
+        return (int) (hash ^ (hash >>> 29)) & indexMask;
+    }
+
+    private void insertSlot(int e) {
+        int slot = slotFor(hashes[e]);
+        while (index[slot] != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index[slot] = e + 1;
+    }
+
+    // Backward-shift deletion keeps linear probing free of tombstones.
+    private void removeSlot(int e) {
+        int hole = slotFor(hashes[e]);
+        while (index[hole] != e + 1) {
+            hole = (hole + 1) & indexMask;
+        }
+        for (int probe = (hole + 1) & indexMask; index[probe] != 0; probe = (probe + 1) & indexMask) {
+            int home = slotFor(hashes[index[probe] - 1]);
+            // move the entry into the hole unless its home lies cyclically in (hole, probe]
+            if (((probe - home) & indexMask) >= ((probe - hole) & indexMask)) {
+                index[hole] = index[probe];
+                hole = probe;
+            }
+        }
+        index[hole] = 0;
+    }
+}
@@ -0,0 +1,67 @@
+package storm.starter.trident.project.countmin.state;
+
+import storm.trident.operation.CombinerAggregator;
+import storm.trident.tuple.TridentTuple;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces (word, count[, error]) candidates coming from every CountMin
+ * partition into one global Top-K list, sorted by descending count.
+ *
+ * Each word is owned by exactly one partition, so its local count is its
+ * global count and the global Top-K is always among the local Top-K lists.
+ *
+ *@author: SWAGAT
+ */
+public class TopKCombiner implements CombinerAggregator<List<WordCount>> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final Comparator<WordCount> BY_COUNT_DESC = new Comparator<WordCount>() {
+        @Override
+        public int compare(WordCount x, WordCount y) {
+            return x.count < y.count ? 1 : (x.count > y.count ? -1 : 0);
+        }
+    };
+
+    private final int k;
+
+    public TopKCombiner(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.k = k;
+    }
+
+    public List<WordCount> init(TridentTuple tuple) {
+        List<WordCount> list = new ArrayList<WordCount>(1);
+        list.add(new WordCount(tuple.getString(0), tuple.getLong(1), tuple.size() > 2 ? tuple.getLong(2) : 0));
+        return list;
+    }
+
+    public List<WordCount> combine(List<WordCount> val1, List<WordCount> val2) {
+        // keep the larger count should a word ever be reported twice
+        Map<String, WordCount> words = new HashMap<String, WordCount>();
+        for (WordCount w : val1) {
+            words.put(w.word, w);
+        }
+        for (WordCount w : val2) {
+            WordCount seen = words.get(w.word);
+            if (seen == null || seen.count < w.count) {
+                words.put(w.word, w);
+            }
+        }
+        List<WordCount> merged = new ArrayList<WordCount>(words.values());
+        Collections.sort(merged, BY_COUNT_DESC);
+        return merged.size() > k ? new ArrayList<WordCount>(merged.subList(0, k)) : merged;
+    }
+
+    public List<WordCount> zero() {
+        return new ArrayList<WordCount>();
+    }
+}
@@ -0,0 +1,28 @@
+package storm.starter.trident.project.countmin.state;
+
+import storm.trident.operation.BaseFunction;
+import storm.trident.operation.TridentCollector;
+import storm.trident.tuple.TridentTuple;
+import backtype.storm.tuple.Values;
+import java.util.List;
+
+/**
+ * Formats a Top-K list as "word(count) word(count) ...", the form printed
+ * by the DRPC client. Input is (args, topk); a "k=m" argument keeps only
+ * the m largest words.
+ *
+ *@author: SWAGAT
+ */
+public class TopKFormatter extends BaseFunction {
+
+    @SuppressWarnings("unchecked")
+    public void execute(TridentTuple tuple, TridentCollector collector) {
+        List<WordCount> top = (List<WordCount>) tuple.getValue(1);
+        int k = TopKQuery.k(tuple.getString(0), top.size());
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < Math.min(k, top.size()); i++) {
+            result.append(top.get(i)).append(' ');
+        }
+        collector.emit(new Values(result.toString()));
+    }
+}
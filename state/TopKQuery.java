@@ -0,0 +1,44 @@
+package storm.starter.trident.project.countmin.state;
+
+/**
+ * Arguments of a Top-K DRPC request: "TopK [n] [k=m]". A bare number n asks
+ * a windowed state for its last n intervals only; k=m asks for the m largest
+ * words instead of the configured k (up to the tracked capacity).
+ *
+ *@author: SWAGAT
+ */
+final class TopKQuery {
+
+    private TopKQuery() {
+    }
+
+    /** The number of intervals asked for, 0 for all of them. */
+    static int lastIntervals(String args) {
+        for (String part : args.trim().split("\\s+")) {
+            try {
+                return Integer.parseInt(part);
+            } catch (NumberFormatException e) {
+                // not the interval count
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The number of words asked for, or defaultK if the request does not say
+     * or asks for none or a negative number of them.
+     */
+    static int k(String args, int defaultK) {
+        for (String part : args.trim().split("\\s+")) {
+            if (part.startsWith("k=")) {
+                try {
+                    int k = Integer.parseInt(part.substring(2));
+                    return k > 0 ? k : defaultK;
+                } catch (NumberFormatException e) {
+                    return defaultK;
+                }
+            }
+        }
+        return defaultK;
+    }
+}
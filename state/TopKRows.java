@@ -0,0 +1,27 @@
+package storm.starter.trident.project.countmin.state;
+
+import storm.trident.operation.BaseFunction;
+import storm.trident.operation.TridentCollector;
+import storm.trident.tuple.TridentTuple;
+import backtype.storm.tuple.Values;
+import java.util.List;
+
+/**
+ * Turns a Top-K list into one (rank, word, count, error) tuple per word, so
+ * a DRPC client gets structured rows instead of a formatted string. Input
+ * is (args, topk); a "k=m" argument keeps only the m largest words.
+ *
+ *@author: SWAGAT
+ */
+public class TopKRows extends BaseFunction {
+
+    @SuppressWarnings("unchecked")
+    public void execute(TridentTuple tuple, TridentCollector collector) {
+        List<WordCount> top = (List<WordCount>) tuple.getValue(1);
+        int k = Math.min(TopKQuery.k(tuple.getString(0), top.size()), top.size());
+        for (int i = 0; i < k; i++) {
+            WordCount w = top.get(i);
+            collector.emit(new Values(i + 1, w.word, w.count, w.error));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable Top-K list of one partition as of a commit, sorted by
+ * descending count. The state builds one per commit and publishes it, so
+ * queries read it as is instead of recomputing anything while the
+ * partition is ingesting.
+ *
+ * Every entry carries the partition's error bound:
+ * <ul>
+ * <li>CountMin (eps * size) and Space-Saving (the smallest counter): the
+ * true count of the word is within [count - error, count], for CountMin
+ * with the sketch's confidence</li>
+ * <li>HeavyKeeper and Count Sketch: HeavyHitterEngine.UNKNOWN_ERROR (-1),
+ * as their counts are not upper bounds. HeavyKeeper's may be below the
+ * true count, Count Sketch's below or above it</li>
+ * </ul>
+ *
+ *@author: SWAGAT
+ */
+public final class TopKSnapshot {
+
+    public static final TopKSnapshot EMPTY = new TopKSnapshot(-1, 0, 0, Collections.<WordCount>emptyList());
+
+    private final long txid;
+    private final long size;
+    private final long errorBound;
+    private final List<WordCount> entries;
+
+    private TopKSnapshot(long txid, long size, long errorBound, List<WordCount> entries) {
+        this.txid = txid;
+        this.size = size;
+        this.errorBound = errorBound;
+        this.entries = entries;
+    }
+
+    /**
+     * @param words      the tracked words with their counts, in any order
+     * @param size       total count of the partition
+     * @param errorBound the partition's errorBound, UNKNOWN_ERROR if there is none
+     */
+    public static TopKSnapshot of(long txid, List<WordCount> words, long size, long errorBound) {
+        List<WordCount> entries = new ArrayList<WordCount>(words.size());
+        for (WordCount w : words) {
+            entries.add(new WordCount(w.word, w.count, errorBound));
+        }
+        Collections.sort(entries, TopKCombiner.BY_COUNT_DESC);
+        return new TopKSnapshot(txid, size, errorBound, Collections.unmodifiableList(entries));
+    }
+
+    /** Transaction id of the commit the snapshot was taken at, -1 before the first one. */
+    public long getTxid() {
+        return txid;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getErrorBound() {
+        return errorBound;
+    }
+
+    /** All tracked words, largest count first. */
+    public List<WordCount> entries() {
+        return entries;
+    }
+
+    /** The k largest, or all tracked words if there are fewer. Not copied. */
+    public List<WordCount> top(int k) {
+        return k >= entries.size() ? entries : entries.subList(0, Math.max(k, 0));
+    }
+}
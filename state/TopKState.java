@@ -0,0 +1,61 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.util.List;
+
+import storm.trident.state.State;
+
+/**
+ * A Trident state that counts words and keeps a Top-K list of them. This is
+ * what CountMinSketchUpdater writes to and what CountMinTopK and
+ * CountMinQuery read from.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public interface TopKState extends State {
+
+    /**
+     * Adds count occurrences of a word whose MurmurHash.hashChars64 hash is
+     * already known.
+     */
+    void add(String item, long hash, long count);
+
+    /**
+     * add for the first n words at once: counts[j] occurrences of items[j],
+     * whose MurmurHash.hashChars64 hash is hashes[j]. The words must be
+     * distinct.
+     */
+    void addAll(String[] items, long[] hashes, long[] counts, int n);
+
+    long estimateCount(String item);
+
+    /**
+     * estimateCount for a word whose MurmurHash.hashChars64 hash is already
+     * known.
+     */
+    long estimateCount(String item, long hash);
+
+    /**
+     * estimateCount for the first n words at once: counts[j] is the
+     * estimate of items[j], whose MurmurHash.hashChars64 hash is hashes[j].
+     */
+    void estimateCounts(String[] items, long[] hashes, int n, long[] counts);
+
+    /**
+     * The tracked Top-K words with their counts, in no particular order.
+     */
+    List<WordCount> topK();
+
+    /**
+     * The Top-K list as of the last commit, sorted, with error bounds.
+     * Built once per commit, so reading it costs nothing.
+     */
+    TopKSnapshot topKSnapshot();
+
+    /**
+     * Changes at every beginCommit and commit, replayed transactions
+     * included, and whenever estimates change between commits (a sliding
+     * window dropping an interval). Estimates cached under one version are
+     * stale under any other.
+     */
+    long version();
+}
@@ -0,0 +1,223 @@
+package storm.starter.trident.project.countmin.state;
+
+/**
+ * Tracks the k words with the largest counts seen so far.
+ *
+ * The words sit in a binary min-heap (smallest count at the root) kept in
+ * parallel primitive arrays, next to an open-addressing hash index that maps
+ * a word to its heap position. Counts are cached in the heap, so no
+ * comparison ever goes back to the sketch:
+ * membership is O(1), raising a word's count and evicting the minimum are
+ * O(log k).
+ *
+ * Keys are looked up by a caller supplied 64 bit hash (the same one the
+ * sketch uses for its buckets), so a word is not hashed a second time here.
+ *
+ *@author: SWAGAT
+ */
+public class TopKTracker {
+
+    private final int capacity;
+
+    // heap, position 0 holds the word with the smallest count
+    private final String[] keys;
+    private final long[] hashes;
+    private final long[] counts;
+    private final int[] slots;                                       // index slot of the word at each heap position
+    private int size;
+    private long evictions;
+
+    // open-addressing index: heap position + 1, or 0 for an empty slot
+    private final int[] index;
+    private final int indexMask;
+
+    public TopKTracker(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.hashes = new long[capacity];
+        this.counts = new long[capacity];
+        this.slots = new int[capacity];
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;        // load factor stays at or below 1/2
+        this.index = new int[indexSize];
+        this.indexMask = indexSize - 1;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Word at heap position i, 0 <= i < size(). Positions are in heap order, not sorted. */
+    public String key(int i) {
+        return keys[i];
+    }
+
+    /** Cached count of the word at heap position i. */
+    public long count(int i) {
+        return counts[i];
+    }
+
+    /** Hash the word at heap position i was offered with. */
+    public long hash(int i) {
+        return hashes[i];
+    }
+
+    /** Smallest tracked count, or 0 while fewer than capacity words are tracked. */
+    public long minCount() {
+        return size < capacity ? 0 : counts[0];
+    }
+
+    /** Number of words evicted by a larger newcomer since the tracker was created. */
+    public long evictions() {
+        return evictions;
+    }
+
+    public boolean contains(String key, long hash) {
+        return find(key, hash) >= 0;
+    }
+
+    /**
+     * Offers a word with its current count. A tracked word gets its count
+     * updated in place; an untracked word is added if there is room or if
+     * it beats the current minimum, which is then evicted.
+     *
+     * @return true if the word is tracked after the call
+     */
+    public boolean offer(String key, long hash, long count) {
+        int pos = find(key, hash);
+        if (pos >= 0) {
+            long old = counts[pos];
+            counts[pos] = count;
+            if (count > old) {
+                siftDown(pos);
+            } else if (count < old) {
+                siftUp(pos);
+            }
+            return true;
+        }
+        if (size < capacity) {
+            pos = size++;
+            set(pos, key, hash, count, insertSlot(hash, pos));
+            siftUp(pos);
+            return true;
+        }
+        if (count <= counts[0]) {
+            return false;
+        }
+        removeSlot(slots[0]);                                        // evict the minimum and reuse its heap position
+        evictions++;
+        set(0, key, hash, count, insertSlot(hash, 0));
+        siftDown(0);
+        return true;
+    }
+
+    /** Approximate memory taken by the tracker and the words it holds, in bytes. */
+    public long sizeInBytes() {
+        long bytes = 24L * capacity + 4L * index.length;                 // key reference, hash, count and slot, plus the index
+        for (int i = 0; i < size; i++) {
+            bytes += 40 + 2L * keys[i].length();                         // String and its chars
+        }
+        return bytes;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            index[slots[i]] = 0;
+            keys[i] = null;
+        }
+        size = 0;
+    }
+
+    private int find(String key, long hash) {
+        for (int slot = slotFor(hash); ; slot = (slot + 1) & indexMask) {
+            int entry = index[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int pos = entry - 1;
+            if (hashes[pos] == hash && keys[pos].equals(key)) {
+                return pos;
+            }
+        }
+    }
+
+    private int slotFor(long hash) {
+        return (int) (hash ^ (hash >>> 29)) & indexMask;
+    }
+
+    private int insertSlot(long hash, int pos) {
+        int slot = slotFor(hash);
+        while (index[slot] != 0) {
+            slot = (slot + 1) & indexMask;
+        }
+        index[slot] = pos + 1;
+        return slot;
+    }
+
+    // Backward-shift deletion keeps linear probing free of tombstones.
+    private void removeSlot(int slot) {
+        int hole = slot;
+        for (int next = (hole + 1) & indexMask; index[next] != 0; next = (next + 1) & indexMask) {
+            int pos = index[next] - 1;
+            int home = slotFor(hashes[pos]);
+            // move the entry into the hole unless its home lies cyclically in (hole, next]
+            if (((next - home) & indexMask) >= ((next - hole) & indexMask)) {
+                index[hole] = index[next];
+                slots[pos] = hole;
+                hole = next;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private void set(int pos, String key, long hash, long count, int slot) {
+        keys[pos] = key;
+        hashes[pos] = hash;
+        counts[pos] = count;
+        slots[pos] = slot;
+        index[slot] = pos + 1;
+    }
+
+    private void siftUp(int pos) {
+        String key = keys[pos];
+        long hash = hashes[pos];
+        long count = counts[pos];
+        int slot = slots[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (counts[parent] <= count) {
+                break;
+            }
+            set(pos, keys[parent], hashes[parent], counts[parent], slots[parent]);
+            pos = parent;
+        }
+        set(pos, key, hash, count, slot);
+    }
+
+    private void siftDown(int pos) {
+        String key = keys[pos];
+        long hash = hashes[pos];
+        long count = counts[pos];
+        int slot = slots[pos];
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < size && counts[right] < counts[child]) {
+                child = right;
+            }
+            if (count <= counts[child]) {
+                break;
+            }
+            set(pos, keys[child], hashes[child], counts[child], slots[child]);
+            pos = child;
+        }
+        set(pos, key, hash, count, slot);
+    }
+}
@@ -0,0 +1,293 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.IMetricsContext;
+
+/**
+ * Sliding-window Count-Min state: "what is trending over the last N
+ * intervals" instead of "what was counted since the topology started".
+ *
+ * The window is a ring of per-interval CountMinSketchStates (one per minute,
+ * say), each with its own Top-K list. Words go into the newest interval.
+ * When an interval ends, the ring advances and the oldest interval is
+ * cleared in place and reused, so memory stays at intervals x depth x width
+ * however long the topology runs.
+ *
+ * A word's count over the last n intervals is the sum of its per-interval
+ * estimates, which is never below the true count and is tighter than the
+ * estimate of one sketch holding all n intervals. The Top-K over the last n
+ * intervals is taken from the union of their per-interval Top-K lists.
+ *
+ *@author: SWAGAT
+ */
+public class WindowedCountMinSketchState implements TopKState {
+
+    private final CountMinSketchState[] intervals;                      // ring, intervals[current] is the newest
+    private final long intervalMillis;
+    private final int k;
+    private int current;
+    private long currentInterval;                                       // time / intervalMillis of intervals[current]
+    private volatile TopKSnapshot published = TopKSnapshot.EMPTY;       // Top-K over the whole window as of the last commit
+    private long publishedInterval;                                     // currentInterval when published was built
+    private long version;                                               // see TopKState.version
+
+    public WindowedCountMinSketchState(int depth, int width, int seed, int k, int numIntervals, long intervalMillis) {
+        this(depth, width, seed, k, numIntervals, intervalMillis, CounterTable.Kind.LONG);
+    }
+
+    public WindowedCountMinSketchState(int depth, int width, int seed, int k, int numIntervals, long intervalMillis,
+                                       CounterTable.Kind counters) {
+        if (numIntervals < 1 || intervalMillis < 1) {
+            throw new IllegalArgumentException("Window needs at least one interval of at least 1 ms");
+        }
+        this.intervals = new CountMinSketchState[numIntervals];
+        for (int i = 0; i < numIntervals; i++) {
+            intervals[i] = new CountMinSketchState(depth, width, seed, k, counters); // same seed, so intervals stay mergeable
+        }
+        this.intervalMillis = intervalMillis;
+        this.k = k;
+        this.currentInterval = now() / intervalMillis;
+        this.publishedInterval = currentInterval;
+    }
+
+    /**
+     * Lets every interval fold itself under memory pressure, see
+     * CountMinSketchState.enableFolding. maxTableBytes is for the whole
+     * window and is split evenly between the intervals.
+     */
+    public void enableFolding(long maxTableBytes, double maxHeapFraction, int minWidth) {
+        for (CountMinSketchState interval : intervals) {
+            interval.enableFolding(maxTableBytes / intervals.length, maxHeapFraction, minWidth);
+        }
+    }
+
+    /** See CountMinSketchState.setConservativeUpdate. */
+    public void setConservativeUpdate(boolean enabled) {
+        for (CountMinSketchState interval : intervals) {
+            interval.setConservativeUpdate(enabled);
+        }
+    }
+
+    /** See CountMinSketchState.enableHotKeys; every interval gets a tier of this capacity. */
+    public void enableHotKeys(int capacity) {
+        for (CountMinSketchState interval : intervals) {
+            interval.enableHotKeys(capacity);
+        }
+    }
+
+    public int getNumIntervals() {
+        return intervals.length;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public void add(String item, long hash, long count) {
+        intervals[current].add(item, hash, count);
+    }
+
+    public void add(String item, long count) {
+        intervals[current].add(item, count);
+    }
+
+    public void addAll(String[] items, long[] hashes, long[] counts, int n) {
+        intervals[current].addAll(items, hashes, counts, n);
+    }
+
+    /** Count over the whole window. */
+    public long estimateCount(String item) {
+        return estimateCount(item, MurmurHash.hashChars64(item), intervals.length);
+    }
+
+    public long estimateCount(String item, long hash) {
+        return estimateCount(item, hash, intervals.length);
+    }
+
+    /** Count over the last n intervals, the current one included. */
+    public long estimateCount(String item, int n) {
+        return estimateCount(item, MurmurHash.hashChars64(item), n);
+    }
+
+    private long estimateCount(String item, long hash, int n) {
+        advance();
+        n = Math.min(n, intervals.length);
+        long count = 0;
+        for (int i = 0; i < n; i++) {
+            count += interval(i).estimateCount(item, hash);
+        }
+        return count;
+    }
+
+    /** Batch estimateCount over the whole window. */
+    public void estimateCounts(String[] items, long[] hashes, int n, long[] counts) {
+        advance();
+        Arrays.fill(counts, 0, n, 0);
+        long[] interval = new long[n];
+        for (int i = 0; i < intervals.length; i++) {
+            interval(i).estimateCounts(items, hashes, n, interval);
+            for (int j = 0; j < n; j++) {
+                counts[j] += interval[j];
+            }
+        }
+    }
+
+    /** Top-K over the whole window. */
+    public List<WordCount> topK() {
+        return topK(intervals.length);
+    }
+
+    /**
+     * The Top-K over the whole window as of the last commit, rebuilt once
+     * the window has advanced past the interval it was built in, so words
+     * of dropped intervals leave it even while no batch commits.
+     */
+    public TopKSnapshot topKSnapshot() {
+        advance();
+        if (publishedInterval != currentInterval) {
+            publish(published.getTxid());
+        }
+        return published;
+    }
+
+    /** Also changes whenever the window advances past an interval. */
+    public long version() {
+        advance();
+        return version;
+    }
+
+    /**
+     * Top-K over the last n intervals, the current one included, sorted by
+     * descending count.
+     */
+    public List<WordCount> topK(int n) {
+        advance();
+        n = Math.min(Math.max(n, 1), intervals.length);
+        long error = errorBound(n);
+        Set<String> candidates = new HashSet<String>();
+        for (int i = 0; i < n; i++) {
+            for (WordCount w : interval(i).topK()) {
+                candidates.add(w.word);
+            }
+        }
+        List<WordCount> result = new ArrayList<WordCount>(candidates.size());
+        for (String word : candidates) {
+            long hash = MurmurHash.hashChars64(word);
+            long count = 0;
+            for (int i = 0; i < n; i++) {
+                count += interval(i).estimateCount(word, hash);
+            }
+            result.add(new WordCount(word, count, error));
+        }
+        Collections.sort(result, TopKCombiner.BY_COUNT_DESC);
+        return result.size() > k ? new ArrayList<WordCount>(result.subList(0, k)) : result;
+    }
+
+    // the window estimate sums one estimate per interval, and so do their error bounds
+    private long errorBound(int n) {
+        long bound = 0;
+        for (int i = 0; i < Math.min(n, intervals.length); i++) {
+            bound += interval(i).errorBound();
+        }
+        return bound;
+    }
+
+    /** Total count over the last n intervals. */
+    public long size(int n) {
+        advance();
+        long size = 0;
+        for (int i = 0; i < Math.min(n, intervals.length); i++) {
+            size += interval(i).size();
+        }
+        return size;
+    }
+
+    /**
+     * Registers the window's metrics: total count, error bound and Top-K
+     * evictions per second, all over the whole window, and the width of the
+     * current interval.
+     */
+    public void registerMetrics(IMetricsContext context, int bucketSecs) {
+        context.registerMetric("countmin.size", new IMetric() {
+            public Object getValueAndReset() {
+                return size(intervals.length);
+            }
+        }, bucketSecs);
+        context.registerMetric("countmin.error_bound", new IMetric() {
+            public Object getValueAndReset() {
+                return errorBound(intervals.length);
+            }
+        }, bucketSecs);
+        context.registerMetric("countmin.width", new IMetric() {
+            public Object getValueAndReset() {
+                return interval(0).getWidth();
+            }
+        }, bucketSecs);
+        context.registerMetric("countmin.topk_evictions_per_sec", new SketchMetrics.Rate() {
+            long seen;
+
+            @Override
+            public Object getValueAndReset() {
+                long evictions = 0;
+                for (CountMinSketchState interval : intervals) {
+                    evictions += interval.evictions();
+                }
+                incrBy(evictions - seen);
+                seen = evictions;
+                return super.getValueAndReset();
+            }
+        }, bucketSecs);
+    }
+
+    @Override
+    public void beginCommit(Long txid) {
+        version++;
+        advance();                                                      // the batch is counted in the interval it is committed in
+    }
+
+    @Override
+    public void commit(Long txid) {
+        version++;
+        for (CountMinSketchState interval : intervals) {
+            interval.foldUnderPressure();
+        }
+        publish(txid);
+    }
+
+    private void publish(long txid) {
+        List<WordCount> top = topK(intervals.length);
+        published = TopKSnapshot.of(txid, top, size(intervals.length), errorBound(intervals.length));
+        publishedInterval = currentInterval;
+    }
+
+    // i-th newest interval, 0 being the current one
+    private CountMinSketchState interval(int i) {
+        return intervals[(current - i + intervals.length) % intervals.length];
+    }
+
+    // Moves the ring forward to the interval of the current time, clearing
+    // every interval that falls out of the window on the way.
+    private void advance() {
+        long target = now() / intervalMillis;
+        long steps = Math.min(target - currentInterval, intervals.length);
+        for (long i = 0; i < steps; i++) {
+            current = (current + 1) % intervals.length;
+            intervals[current].clear();
+        }
+        if (target > currentInterval) {
+            currentInterval = target;
+            version++;                                                  // estimates of the dropped intervals are gone
+        }
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+}
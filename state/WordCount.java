@@ -0,0 +1,35 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.io.Serializable;
+
+/**
+ * A word with its estimated count, as reported by a Top-K list, and the
+ * error bound of that estimate: 0 when not given,
+ * HeavyHitterEngine.UNKNOWN_ERROR (-1) when the estimate is not an upper
+ * bound (see TopKSnapshot).
+ *
+ *@author: SWAGAT
+ */
+public class WordCount implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    public final String word;
+    public final long count;
+    public final long error;
+
+    public WordCount(String word, long count) {
+        this(word, count, 0);
+    }
+
+    public WordCount(String word, long count, long error) {
+        this.word = word;
+        this.count = count;
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return word + "(" + count + ")";
+    }
+}
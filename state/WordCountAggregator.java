@@ -0,0 +1,53 @@
+package storm.starter.trident.project.countmin.state;
+
+import storm.trident.operation.BaseAggregator;
+import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
+import storm.trident.tuple.TridentTuple;
+import backtype.storm.tuple.Values;
+import java.util.ArrayDeque;
+import java.util.Map;
+
+/**
+ * Collapses the words of one batch partition into distinct (word, count, hash)
+ * tuples. Used with partitionAggregate in front of the CountMin state, so the
+ * counting is done before tuples are shuffled to the state partition.
+ *
+ * Trident may have several batches in flight in the same aggregator (up to
+ * maxSpoutPending), so every batch gets a map of its own. Maps are taken
+ * from a pool and returned to it once their batch is emitted; the map of a
+ * batch that never completes is simply left to the garbage collector.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class WordCountAggregator extends BaseAggregator<WordCountMap> {
+
+    private transient ArrayDeque<WordCountMap> free;            // maps of completed batches, reused
+
+    @Override
+    public void prepare(Map conf, TridentOperationContext context) {
+        free = new ArrayDeque<WordCountMap>();
+    }
+
+    public WordCountMap init(Object batchId, TridentCollector collector) {
+        WordCountMap words = free.poll();
+        return words != null ? words : new WordCountMap(1024);
+    }
+
+    public void aggregate(WordCountMap words, TridentTuple tuple, TridentCollector collector) {
+        // Tuples are (word), or (word, count, hash) from StopWordTokenizer
+        if (tuple.size() > 2) {
+            words.add(tuple.getString(0), tuple.getLong(2), tuple.getLong(1));
+        } else {
+            words.add(tuple.getString(0), tuple.size() > 1 ? tuple.getLong(1) : 1);
+        }
+    }
+
+    public void complete(WordCountMap words, TridentCollector collector) {
+        for (int i = 0; i < words.size(); i++) {
+            collector.emit(new Values(words.key(i), words.count(i), words.hash(i)));
+        }
+        words.clear();
+        free.push(words);
+    }
+}
@@ -0,0 +1,121 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from word to a primitive long count, used to collapse
+ * a batch of words into distinct (word, count) pairs.
+ *
+ * Entries are stored densely in insertion order, so they can be walked with
+ * key(i)/hash(i)/count(i) for 0 <= i < size(). clear() only touches the
+ * slots that were used, which makes it cheap to keep one instance and reuse
+ * it for every batch.
+ *
+ *@author: Preetham MS (pmahish@ncsu.edu)
+ */
+public class WordCountMap {
+
+    private String[] keys;
+    private long[] hashes;
+    private long[] counts;
+    private int[] slots;                                             // index slot of each entry
+    private int size;
+
+    private int[] index;                                             // entry + 1, or 0 for an empty slot
+    private int indexMask;
+
+    public WordCountMap(int expectedSize) {
+        int capacity = Math.max(expectedSize, 4);
+        keys = new String[capacity];
+        hashes = new long[capacity];
+        counts = new long[capacity];
+        slots = new int[capacity];
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        index = new int[indexSize];
+        indexMask = indexSize - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String key(int i) {
+        return keys[i];
+    }
+
+    public long hash(int i) {
+        return hashes[i];
+    }
+
+    public long count(int i) {
+        return counts[i];
+    }
+
+    // The backing arrays, valid for the first size() entries until the next add
+
+    String[] keys() {
+        return keys;
+    }
+
+    long[] hashes() {
+        return hashes;
+    }
+
+    long[] counts() {
+        return counts;
+    }
+
+    public void add(String key, long count) {
+        add(key, MurmurHash.hashChars64(key), count);
+    }
+
+    /**
+     * Adds count to the word, whose hash must be MurmurHash.hashChars64(key).
+     */
+    public void add(String key, long hash, long count) {
+        int slot = (int) (hash ^ (hash >>> 29)) & indexMask;
+        for (int entry; (entry = index[slot]) != 0; slot = (slot + 1) & indexMask) {
+            int i = entry - 1;
+            if (hashes[i] == hash && keys[i].equals(key)) {
+                counts[i] += count;
+                return;
+            }
+        }
+        if (size == keys.length) {
+            grow();
+            add(key, hash, count);
+            return;
+        }
+        keys[size] = key;
+        hashes[size] = hash;
+        counts[size] = count;
+        slots[size] = slot;
+        index[slot] = ++size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            index[slots[i]] = 0;
+            keys[i] = null;
+        }
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        slots = Arrays.copyOf(slots, capacity);
+        index = new int[index.length * 2];
+        indexMask = index.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = (int) (hashes[i] ^ (hashes[i] >>> 29)) & indexMask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & indexMask;
+            }
+            index[slot] = i + 1;
+            slots[i] = slot;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import storm.trident.tuple.TridentTuple;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CountMinQueryTest {
+
+    private static final long INTERVAL_MILLIS = 60000;
+    private static final int NUM_INTERVALS = 3;
+
+    @Test
+    public void countsShouldLeaveWithTheWindowWithoutACommit() {
+        final long[] clock = { 0 };
+        WindowedCountMinSketchState state = new WindowedCountMinSketchState(5, 1024, 1, 10, NUM_INTERVALS, INTERVAL_MILLIS) {
+            @Override
+            long now() {
+                return clock[0];
+            }
+        };
+        state.beginCommit(1L);
+        state.add("love", 7);
+        state.commit(1L);
+        CountMinQuery query = preparedQuery();
+        assertThat(query.batchRetrieve(state, requests("love"))).containsExactly(7L);
+
+        clock[0] += NUM_INTERVALS * INTERVAL_MILLIS;                    // no tweets, no commits
+
+        assertThat(query.batchRetrieve(state, requests("love"))).containsExactly(0L);
+    }
+
+    @Test
+    public void countsShouldChangeWhenATransactionIsReplayed() {
+        CountMinSketchState state = new CountMinSketchState(5, 1024, 1, 10);
+        state.beginCommit(1L);
+        state.add("love", 7);
+        state.commit(1L);
+        CountMinQuery query = preparedQuery();
+        assertThat(query.batchRetrieve(state, requests("love"))).containsExactly(7L);
+
+        state.beginCommit(1L);                                          // the same transaction again
+        state.add("love", 7);
+        state.commit(1L);
+
+        assertThat(query.batchRetrieve(state, requests("love"))).containsExactly(14L);
+    }
+
+    private static CountMinQuery preparedQuery() {
+        CountMinQuery query = new CountMinQuery();
+        query.prepare(null, null);
+        return query;
+    }
+
+    private static List<TridentTuple> requests(String... words) {
+        List<TridentTuple> tuples = new ArrayList<TridentTuple>();
+        for (String word : words) {
+            TridentTuple tuple = mock(TridentTuple.class);
+            when(tuple.getString(0)).thenReturn(word);
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+}
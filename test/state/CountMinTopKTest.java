@@ -0,0 +1,68 @@
+package storm.starter.trident.project.countmin.state;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import storm.trident.tuple.TridentTuple;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CountMinTopKTest {
+
+    private static final int TRACKED = 5;
+
+    @DataProvider
+    public Object[][] requestsWithoutUsableK() {
+        return new Object[][]{ { "TopK k=-1" }, { "TopK k=0" }, { "TopK k=-100" } };
+    }
+
+    @Test(dataProvider = "requestsWithoutUsableK")
+    public void nonPositiveKShouldReturnTheWholeList(String args) {
+        List<List<WordCount>> candidates = new CountMinTopK().batchRetrieve(committedState(), Arrays.asList(request(args)));
+
+        assertThat(candidates).hasSize(1);
+        assertThat(candidates.get(0)).hasSize(TRACKED);
+    }
+
+    @Test
+    public void positiveKShouldKeepTheLargestWords() {
+        List<List<WordCount>> candidates = new CountMinTopK().batchRetrieve(committedState(), Arrays.asList(request("TopK k=2")));
+
+        assertThat(candidates.get(0)).hasSize(2);
+        assertThat(candidates.get(0).get(0).word).isEqualTo("w0");
+        assertThat(candidates.get(0).get(1).word).isEqualTo("w1");
+    }
+
+    @Test
+    public void kLargerThanTheListShouldReturnTheWholeList() {
+        List<List<WordCount>> candidates = new CountMinTopK().batchRetrieve(committedState(), Arrays.asList(request("TopK k=1000")));
+
+        assertThat(candidates.get(0)).hasSize(TRACKED);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void combinerShouldRejectNonPositiveK() {
+        new TopKCombiner(0);
+    }
+
+    // w0 counted 100 times, w1 99 times and so on, committed once
+    private static CountMinSketchState committedState() {
+        CountMinSketchState state = new CountMinSketchState(5, 1024, 1, TRACKED);
+        for (int i = 0; i < 2 * TRACKED; i++) {
+            state.add("w" + i, 100 - i);
+        }
+        state.commit(1L);
+        return state;
+    }
+
+    private static TridentTuple request(String args) {
+        TridentTuple tuple = mock(TridentTuple.class);
+        when(tuple.getString(0)).thenReturn(args);
+        return tuple;
+    }
+}
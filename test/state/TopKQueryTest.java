@@ -0,0 +1,34 @@
+package storm.starter.trident.project.countmin.state;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TopKQueryTest {
+
+    private static final int ANY_DEFAULT_K = 15;
+
+    @DataProvider
+    public Object[][] requestsWithoutUsableK() {
+        return new Object[][]{ { "TopK" }, { "TopK k=0" }, { "TopK k=-1" }, { "TopK k=-2147483648" }, { "TopK k=many" },
+                { "TopK k=" } };
+    }
+
+    @Test(dataProvider = "requestsWithoutUsableK")
+    public void kShouldFallBackToDefaultUnlessPositive(String args) {
+        assertThat(TopKQuery.k(args, ANY_DEFAULT_K)).isEqualTo(ANY_DEFAULT_K);
+    }
+
+    @Test
+    public void kShouldReturnPositiveK() {
+        assertThat(TopKQuery.k("TopK 5 k=3", ANY_DEFAULT_K)).isEqualTo(3);
+        assertThat(TopKQuery.k("TopK k=100", ANY_DEFAULT_K)).isEqualTo(100);
+    }
+
+    @Test
+    public void lastIntervalsShouldIgnoreK() {
+        assertThat(TopKQuery.lastIntervals("TopK k=3")).isEqualTo(0);
+        assertThat(TopKQuery.lastIntervals("TopK 5 k=3")).isEqualTo(5);
+    }
+}
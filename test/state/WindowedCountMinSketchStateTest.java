@@ -0,0 +1,68 @@
+package storm.starter.trident.project.countmin.state;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class WindowedCountMinSketchStateTest {
+
+    private static final long INTERVAL_MILLIS = 60000;
+    private static final int NUM_INTERVALS = 3;
+
+    private long[] clock;
+    private WindowedCountMinSketchState window;
+
+    @BeforeMethod
+    public void setUp() {
+        clock = new long[]{ 0 };
+        final long[] time = clock;
+        window = new WindowedCountMinSketchState(5, 1024, 1, 10, NUM_INTERVALS, INTERVAL_MILLIS) {
+            @Override
+            long now() {
+                return time[0];
+            }
+        };
+    }
+
+    @Test
+    public void snapshotShouldDropWordsOfExpiredIntervalsWithoutACommit() {
+        count(1L, "eclipse", 5);
+        clock[0] += INTERVAL_MILLIS;
+        count(2L, "love", 3);
+
+        clock[0] += (NUM_INTERVALS - 1) * INTERVAL_MILLIS;              // "eclipse" leaves the window, no commit
+
+        TopKSnapshot snapshot = window.topKSnapshot();
+        assertThat(snapshot.entries()).hasSize(1);
+        assertThat(snapshot.entries().get(0).word).isEqualTo("love");
+        assertThat(snapshot.getSize()).isEqualTo(3);
+        assertThat(snapshot.getTxid()).isEqualTo(2);
+    }
+
+    @Test
+    public void snapshotShouldBeEmptyOnceTheWholeWindowHasPassed() {
+        count(1L, "eclipse", 5);
+
+        clock[0] += NUM_INTERVALS * INTERVAL_MILLIS;
+
+        assertThat(window.topKSnapshot().entries()).isEmpty();
+        assertThat(window.topKSnapshot().getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void snapshotShouldNotChangeWithinAnInterval() {
+        count(1L, "eclipse", 5);
+        TopKSnapshot committed = window.topKSnapshot();
+
+        clock[0] += INTERVAL_MILLIS - 1;
+
+        assertThat(window.topKSnapshot()).isSameAs(committed);
+    }
+
+    private void count(long txid, String word, long count) {
+        window.beginCommit(txid);
+        window.add(word, count);
+        window.commit(txid);
+    }
+}